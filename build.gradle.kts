@@ -17,6 +17,19 @@ dependencies {
     implementation("org.jetbrains:annotations:26.0.1")
 }
 
+// The SIMD backend of ConcreteMatrix uses the incubating Vector API;
+// at runtime it is only selected if the module is present, see ElementKernels.
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+    // The native library of cvc5 is checked in next to this script. Tests that need it are skipped
+    // if it cannot be loaded, unless the build is run with -PrequireCvc5, in which case they fail.
+    systemProperty("java.library.path", projectDir.absolutePath)
+    if (project.hasProperty("requireCvc5")) {
+        systemProperty("il.ac.technion.cs.matrices.requireCvc5", "true")
+    }
 }
\ No newline at end of file
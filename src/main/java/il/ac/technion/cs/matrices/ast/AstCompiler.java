@@ -0,0 +1,215 @@
+package il.ac.technion.cs.matrices.ast;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+
+/**
+ * Compiles an {@link AstNode} tree into a single {@link MethodHandle}, built with method handle combinators,
+ * which calls the methods of the tree directly.
+ * <p>
+ * Compilation assumes that all the variables are of a given class. Under that assumption:
+ * <ul>
+ *     <li>Every {@link ClassConstantNode} is evaluated once, at compile time.</li>
+ *     <li>Every {@link MethodCallNode} whose receiver and arguments have classes known at compile time
+ *     is resolved once, at compile time, and called directly. The class of a method call is known
+ *     if the method returns a final class, such as <code>ConcreteMatrix</code>.</li>
+ *     <li>Any other method call is dispatched by {@link MethodCallNode#apply}, and any other node
+ *     is evaluated by the interpreter.</li>
+ * </ul>
+ * The compiled program checks the assumption on every evaluation, and falls back to the interpreter if it
+ * does not hold. If the tree can not be compiled at all, for example because it calls a method that does
+ * not exist, the program always falls back to the interpreter, so that errors are reported as usual.
+ */
+public final class AstCompiler {
+    private static final MethodHandle APPLY;
+    private static final MethodHandle EVALUATE;
+    private static final MethodHandle MATCHES;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            APPLY = lookup.findVirtual(MethodCallNode.class, "apply",
+                    MethodType.methodType(Object.class, Object.class, Object[].class));
+            EVALUATE = lookup.findVirtual(AstNode.class, "evaluate",
+                    MethodType.methodType(Object.class, Object[].class));
+            MATCHES = lookup.findStatic(AstCompiler.class, "matches",
+                    MethodType.methodType(boolean.class, Class.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private AstCompiler() {
+    }
+
+    /**
+     * A compiled subtree: a handle of type <code>(Object[])X</code> taking the variables,
+     * and the exact class of its values, or null if it is not known at compile time.
+     */
+    private record Compiled(MethodHandle handle, Class<?> exactClass) {
+    }
+
+    /**
+     * Thrown when a tree can not be compiled.
+     */
+    private static final class CompilationException extends Exception {
+        CompilationException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Compiles the given tree, for variables of the given class.
+     *
+     * @param root          The tree
+     * @param variableClass The class of the variables
+     * @return The compiled program
+     */
+    public static <T> CompiledProgram<T> compile(AstNode<T> root, Class<?> variableClass) {
+        MethodHandle interpreter = EVALUATE.bindTo(root);
+        MethodHandle handle;
+        try {
+            MethodHandle compiled = compileNode(root, variableClass).handle()
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            handle = MethodHandles.guardWithTest(MATCHES.bindTo(variableClass), compiled, interpreter);
+        } catch (CompilationException | RuntimeException e) {
+            return new Program<>(root, interpreter, false);
+        }
+        return new Program<>(root, handle, true);
+    }
+
+    private static Compiled compileNode(AstNode<?> node, Class<?> variableClass)
+            throws CompilationException {
+        if (node instanceof VariableNode<?> variable) {
+            MethodHandle getter = MethodHandles.insertArguments(
+                    MethodHandles.arrayElementGetter(Object[].class), 1, variable.getIndex());
+            return new Compiled(getter.asType(MethodType.methodType(variableClass, Object[].class)), variableClass);
+        }
+        if (node instanceof ClassConstantNode<?> constant) {
+            Object value;
+            try {
+                value = constant.getValue().getValue(variableClass);
+            } catch (Exception e) {
+                throw new CompilationException("The constant " + constant + " can not be computed");
+            }
+            if (value == null) {
+                return new Compiled(MethodHandles.dropArguments(
+                        MethodHandles.constant(Object.class, null), 0, Object[].class), null);
+            }
+            return new Compiled(MethodHandles.dropArguments(
+                    MethodHandles.constant(value.getClass(), value), 0, Object[].class), value.getClass());
+        }
+        if (node instanceof MethodCallNode<?> call) {
+            return compileCall(call, variableClass);
+        }
+        return new Compiled(EVALUATE.bindTo(node), null);
+    }
+
+    private static Compiled compileCall(MethodCallNode<?> call, Class<?> variableClass)
+            throws CompilationException {
+        int count = call.getArguments().size() + 1;
+        Compiled[] operands = new Compiled[count];
+        operands[0] = compileNode(call.getReceiver(), variableClass);
+        for (int i = 1; i < count; i++) {
+            operands[i] = compileNode(call.getArguments().get(i - 1), variableClass);
+        }
+        boolean known = true;
+        Class<?>[] argumentClasses = new Class[count - 1];
+        for (int i = 0; i < count; i++) {
+            known &= operands[i].exactClass() != null;
+            if (i > 0) {
+                argumentClasses[i - 1] = operands[i].exactClass();
+            }
+        }
+        MethodHandle target;
+        Class<?> exactClass = null;
+        if (known) {
+            target = MethodCallNode.findDirectHandle(call.getMethod(), operands[0].exactClass(), argumentClasses);
+            if (target == null) {
+                throw new CompilationException("Method " + call.getMethod() + " not found");
+            }
+            Class<?> returnType = target.type().returnType();
+            if (returnType == void.class) {
+                target = target.asType(target.type().changeReturnType(Object.class));
+            } else if (returnType.isPrimitive()) {
+                Class<?> boxed = MethodType.methodType(returnType).wrap().returnType();
+                target = target.asType(target.type().changeReturnType(boxed));
+                exactClass = boxed;
+            } else if (Modifier.isFinal(returnType.getModifiers())) {
+                exactClass = returnType;
+            }
+        } else {
+            target = APPLY.bindTo(call).asCollector(Object[].class, count - 1);
+        }
+        MethodHandle[] filters = new MethodHandle[count];
+        Class<?>[] parameters = new Class[count];
+        for (int i = 0; i < count; i++) {
+            filters[i] = operands[i].handle();
+            parameters[i] = filters[i].type().returnType();
+        }
+        target = target.asType(MethodType.methodType(target.type().returnType(), parameters));
+        MethodHandle combined = MethodHandles.filterArguments(target, 0, filters);
+        // Every operand takes the same variables
+        return new Compiled(MethodHandles.permuteArguments(combined,
+                MethodType.methodType(combined.type().returnType(), Object[].class), new int[count]), exactClass);
+    }
+
+    /**
+     * Returns whether the compile-time assumption holds for the given variables.
+     */
+    private static boolean matches(Class<?> variableClass, Object[] variables) {
+        if (variables.length == 0) {
+            return false;
+        }
+        for (Object variable : variables) {
+            if (variable == null || variable.getClass() != variableClass) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Program<T> implements CompiledProgram<T> {
+        private final AstNode<T> source;
+        /**
+         * A handle of type <code>(Object[])Object</code>.
+         */
+        private final MethodHandle handle;
+        private final boolean compiled;
+
+        Program(AstNode<T> source, MethodHandle handle, boolean compiled) {
+            this.source = source;
+            this.handle = handle;
+            this.compiled = compiled;
+        }
+
+        @Override
+        public AstNode<T> getSource() {
+            return source;
+        }
+
+        @Override
+        public boolean isCompiled() {
+            return compiled;
+        }
+
+        @SafeVarargs
+        @Override
+        public final T evaluate(Object... variables) {
+            try {
+                return (T) handle.invokeExact(variables);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return source.toString();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package il.ac.technion.cs.matrices.ast;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A factory of interned (hash-consed) nodes: for every structure it returns a single node,
+ * so trees built by the same factory share all their common subtrees, and form a DAG.
+ * Interned nodes can be compared with <code>==</code>, and are cheap to use as keys.
+ * <p>
+ * A factory keeps all the nodes it created reachable; use one factory per synthesis job.
+ * Objects of this class are thread-safe.
+ */
+public final class AstFactory {
+    private final Map<AstNode<?>, AstNode<?>> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the variable node with the given index.
+     *
+     * @param index The index of the variable
+     * @return The interned node
+     */
+    public <T> VariableNode<T> variable(int index) {
+        return intern(new VariableNode<>(index));
+    }
+
+    /**
+     * Returns the class constant node with the given value.
+     *
+     * @param value The value of the node
+     * @return The interned node
+     */
+    public <T> ClassConstantNode<T> constant(ClassConstantNode.ClassValue<T> value) {
+        return intern(new ClassConstantNode<>(value));
+    }
+
+    /**
+     * Returns the method call node with the given method, receiver and arguments,
+     * interning the receiver and the arguments as well.
+     *
+     * @param method    The name of the method to call
+     * @param receiver  The receiver of the method call
+     * @param arguments The arguments to pass to the method
+     * @return The interned node
+     */
+    public <T> MethodCallNode<T> call(String method, AstNode<?> receiver, AstNode<?>... arguments) {
+        AstNode<?>[] internedArguments = new AstNode<?>[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            internedArguments[i] = intern(arguments[i]);
+        }
+        return intern(new MethodCallNode<>(method, intern(receiver), internedArguments));
+    }
+
+    /**
+     * Returns the interned node equal to the given node, interning it (and its subtrees) if there is none.
+     *
+     * @param node The node
+     * @return The interned node
+     */
+    public <N extends AstNode<?>> N intern(N node) {
+        AstNode<?> interned = nodes.get(node);
+        if (interned != null) {
+            return (N) interned;
+        }
+        if (node instanceof MethodCallNode<?> call) {
+            // The children must be interned too, so that the DAG shares them
+            AstNode<?>[] arguments = call.getArguments().toArray(new AstNode<?>[0]);
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = intern(arguments[i]);
+            }
+            AstNode<?> receiver = intern(call.getReceiver());
+            if (receiver != call.getReceiver() || !sameArguments(call, arguments)) {
+                node = (N) new MethodCallNode<>(call.getMethod(), receiver, arguments);
+            }
+        }
+        interned = nodes.putIfAbsent(node, node);
+        return interned == null ? node : (N) interned;
+    }
+
+    /**
+     * Returns the number of nodes interned so far.
+     *
+     * @return The number of nodes
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    private static boolean sameArguments(MethodCallNode<?> call, AstNode<?>[] arguments) {
+        for (int i = 0; i < arguments.length; i++) {
+            if (call.getArguments().get(i) != arguments[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
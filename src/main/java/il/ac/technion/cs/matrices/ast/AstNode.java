@@ -5,6 +5,7 @@ package il.ac.technion.cs.matrices.ast;
  * The program is represented as an abstract syntax tree (AST) where each node is an expression,
  * and these expressions can be composed.
  * See implementations: {@link ClassConstantNode}, {@link MethodCallNode}, {@link VariableNode}.
+ * These implement structural equality, and can be interned with an {@link AstFactory}.
  */
 public interface AstNode<T> {
     /**
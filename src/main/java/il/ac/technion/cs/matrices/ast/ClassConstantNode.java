@@ -1,5 +1,7 @@
 package il.ac.technion.cs.matrices.ast;
 
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * An expression representing a constant value that is
@@ -8,6 +10,10 @@ package il.ac.technion.cs.matrices.ast;
  * to just have a constant in the AST, but it's a different constant
  * depending on the entry type. So, this node allows us to defer the
  * computation of the constant until we know the entry type.
+ * <p>
+ * Two nodes are equal if their values are equal. Values created by {@link #getStaticMethodValue}
+ * are equal if they call the same method with equal arguments; other values, such as lambdas,
+ * are usually only equal to themselves.
  */
 public class ClassConstantNode<T> implements AstNode<T> {
     /**
@@ -40,15 +46,102 @@ public class ClassConstantNode<T> implements AstNode<T> {
      * @param args       The arguments to pass to the method (optional)
      * @return A <code>ClassValue</code> that represents the method call
      */
-    public static <T> ClassValue<T> getStaticMethodValue(String methodName, Object... args) {
-        Class<?>[] argTypes = new Class[args.length];
-        for (int i = 0; i < args.length; i++) {
-            argTypes[i] = args[i].getClass();
-            if (argTypes[i].equals(Integer.class)) {
-                argTypes[i] = int.class;
-            } // hack
+    public static <T> StaticMethodValue<T> getStaticMethodValue(String methodName, Object... args) {
+        return new StaticMethodValue<>(methodName, args);
+    }
+
+    /**
+     * This method returns a <code>ClassValue</code> that represents the given constant,
+     * regardless of the class used. For example, this can be used for the dimensions passed to
+     * <code>resize</code>. Two such values are equal if their constants are equal.
+     *
+     * @param value The constant
+     * @return A <code>ClassValue</code> that represents the constant
+     */
+    public static <T> ConstantValue<T> getConstantValue(T value) {
+        return new ConstantValue<>(value);
+    }
+
+    /**
+     * A <code>ClassValue</code> that represents a constant, see {@link #getConstantValue}.
+     */
+    public static final class ConstantValue<T> implements ClassValue<T> {
+        private final T value;
+
+        private ConstantValue(T value) {
+            this.value = value;
+        }
+
+        @Override
+        public T getValue(Class<?> clazz) {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof ConstantValue<?> other && Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * A <code>ClassValue</code> that calls a static method with constant arguments,
+     * see {@link #getStaticMethodValue}. Two such values are equal if they call the same method
+     * with equal arguments.
+     */
+    public static final class StaticMethodValue<T> implements ClassValue<T> {
+        private final String methodName;
+        private final Object[] args;
+        private final Class<?>[] argTypes;
+
+        private StaticMethodValue(String methodName, Object[] args) {
+            this.methodName = methodName;
+            this.args = args.clone();
+            this.argTypes = new Class[args.length];
+            for (int i = 0; i < args.length; i++) {
+                argTypes[i] = args[i].getClass();
+                if (argTypes[i].equals(Integer.class)) {
+                    argTypes[i] = int.class;
+                } // hack
+            }
+        }
+
+        @Override
+        public T getValue(Class<?> clazz) throws Exception {
+            return (T) clazz.getMethod(methodName, argTypes).invoke(null, args);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return this == obj || obj instanceof StaticMethodValue<?> other
+                    && methodName.equals(other.methodName) && Arrays.equals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * methodName.hashCode() + Arrays.hashCode(args);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(methodName).append("(");
+            for (int i = 0; i < args.length; i++) {
+                sb.append(args[i]);
+                if (i < args.length - 1) {
+                    sb.append(", ");
+                }
+            }
+            return sb.append(")").toString();
         }
-        return clazz -> (T) clazz.getMethod(methodName, argTypes).invoke(null, args);
     }
 
     private final ClassValue<T> value;
@@ -57,6 +150,15 @@ public class ClassConstantNode<T> implements AstNode<T> {
         this.value = value;
     }
 
+    /**
+     * Returns the selection of the value represented by this node.
+     *
+     * @return The class value
+     */
+    public ClassValue<T> getValue() {
+        return value;
+    }
+
     @SafeVarargs
     @Override
     public final T evaluate(Object... variables) {
@@ -67,6 +169,16 @@ public class ClassConstantNode<T> implements AstNode<T> {
         }
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof ClassConstantNode<?> other && value.equals(other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
     @Override
     public String toString() {
         return "ClassConstant" + value;
@@ -0,0 +1,22 @@
+package il.ac.technion.cs.matrices.ast;
+
+/**
+ * A program compiled by {@link AstCompiler}.
+ * It is evaluated exactly like the tree it was compiled from, and can be used wherever that tree is used.
+ */
+public interface CompiledProgram<T> extends AstNode<T> {
+    /**
+     * Returns the tree this program was compiled from.
+     *
+     * @return The source tree
+     */
+    AstNode<T> getSource();
+
+    /**
+     * Returns whether compilation succeeded.
+     * If it did not, evaluation falls back to interpreting the source tree.
+     *
+     * @return Whether this program is compiled
+     */
+    boolean isCompiled();
+}
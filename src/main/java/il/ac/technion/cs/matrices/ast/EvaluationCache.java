@@ -0,0 +1,168 @@
+package il.ac.technion.cs.matrices.ast;
+
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates many programs on the same fixed inputs (examples), remembering the value of every subexpression,
+ * so that subexpressions shared between programs are evaluated once per example.
+ * Nodes are compared structurally, and the cache is most effective with nodes interned by an {@link AstFactory}.
+ * <p>
+ * The cache is bounded by weight: a matrix weighs its number of entries, and any other value weighs one.
+ * When the total weight exceeds the capacity, the least recently used values are evicted.
+ * Exceptions thrown during evaluation are cached too, and rethrown whenever the value is requested again.
+ * Objects of this class are thread-safe.
+ */
+public final class EvaluationCache {
+    private final List<Object[]> examples;
+    private final long capacity;
+    private final LinkedHashMap<Key, Object> values = new LinkedHashMap<>(1024, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+
+    private record Key(AstNode<?> node, int example) {
+    }
+
+    /**
+     * A cached exception.
+     */
+    private record Failure(RuntimeException exception) {
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param examples The inputs of every example, each of which is passed to {@link AstNode#evaluate}
+     * @param capacity The maximal total weight of the cached values
+     * @throws IllegalArgumentException If the capacity is non-positive
+     */
+    public EvaluationCache(List<Object[]> examples, long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.examples = List.copyOf(examples);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the number of examples.
+     *
+     * @return The number of examples
+     */
+    public int getExampleCount() {
+        return examples.size();
+    }
+
+    /**
+     * Evaluates the given program on the inputs of the given example.
+     *
+     * @param node    The program
+     * @param example The index of the example
+     * @return The value of the program
+     * @throws IndexOutOfBoundsException If the example index is out of bounds
+     * @throws RuntimeException          If the evaluation throws
+     */
+    public Object evaluate(AstNode<?> node, int example) {
+        Object[] variables = examples.get(example);
+        if (node instanceof VariableNode<?>) {
+            return node.evaluate(variables);
+        }
+        Key key = new Key(node, example);
+        Object value;
+        synchronized (this) {
+            value = values.get(key);
+            if (value != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (value == null) {
+            try {
+                if (node instanceof MethodCallNode<?> call) {
+                    Object receiver = evaluate(call.getReceiver(), example);
+                    List<AstNode<?>> arguments = call.getArguments();
+                    Object[] evaluatedArguments = new Object[arguments.size()];
+                    for (int i = 0; i < evaluatedArguments.length; i++) {
+                        evaluatedArguments[i] = evaluate(arguments.get(i), example);
+                    }
+                    value = call.apply(receiver, evaluatedArguments);
+                } else {
+                    value = node.evaluate(variables);
+                }
+            } catch (RuntimeException e) {
+                value = new Failure(e);
+            }
+            put(key, value);
+        }
+        if (value instanceof Failure failure) {
+            throw failure.exception();
+        }
+        return value;
+    }
+
+    private synchronized void put(Key key, Object value) {
+        Object previous = values.put(key, value);
+        if (previous != null) {
+            weight -= weigh(previous);
+        }
+        weight += weigh(value);
+        Iterator<Map.Entry<Key, Object>> eldest = values.entrySet().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            Map.Entry<Key, Object> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                break; // never evict the value just computed
+            }
+            weight -= weigh(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long weigh(Object value) {
+        if (value instanceof IMatrix<?> matrix) {
+            return (long) matrix.getRows() * matrix.getColumns();
+        }
+        return 1;
+    }
+
+    /**
+     * Returns the number of cached values.
+     *
+     * @return The number of cached values
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns the total weight of the cached values.
+     *
+     * @return The total weight
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached value.
+     *
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that did not find a cached value.
+     *
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -3,15 +3,69 @@ package il.ac.technion.cs.matrices.ast;
 import il.ac.technion.cs.matrices.matrix.AbstractMatrix;
 import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
 import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SparseMatrix;
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * A node representing a method call on a receiver with arguments.
+ * <p>
+ * The method is resolved once per combination of receiver and argument classes, and cached as a
+ * {@link MethodHandle}: every node remembers the last combination it saw, and all nodes share a cache
+ * of every combination resolved so far. Repeated evaluation is therefore a direct call.
+ * <p>
+ * Two nodes are equal if they call the same method on equal receivers with equal arguments.
+ * The hash code is computed once, from the (cached) hash codes of the children, and nodes built by
+ * an {@link AstFactory} share equal children, so both operations take time linear in the number of arguments.
  */
 public class MethodCallNode<T> implements AstNode<T> {
+    /**
+     * The resolved methods, shared by all nodes.
+     */
+    private static final Map<Signature, Dispatch> DISPATCHES = new ConcurrentHashMap<>();
+
     private final @NotNull String method;
     private final @NotNull AstNode<?> receiver;
     private final AstNode<?>[] arguments;
+    private final int hash;
+    /**
+     * The last method this node resolved.
+     */
+    private volatile Dispatch dispatch;
+
+    /**
+     * The name of a method together with the runtime classes of a call's receiver and arguments.
+     */
+    private record Signature(String method, Class<?> receiverClass, List<Class<?>> argumentClasses) {
+    }
+
+    /**
+     * A resolved method: the classes it was resolved for, and a handle of type
+     * <code>(Object, Object[])Object</code> taking the receiver and the arguments,
+     * or null if there is no such method.
+     */
+    private record Dispatch(Class<?> receiverClass, Class<?>[] argumentClasses, MethodHandle handle) {
+        boolean matches(Object receiver, Object[] arguments) {
+            if (receiver.getClass() != receiverClass || arguments.length != argumentClasses.length) {
+                return false;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i].getClass() != argumentClasses[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 
     /**
      * Creates a new method call node.
@@ -26,8 +80,47 @@ public class MethodCallNode<T> implements AstNode<T> {
         this.method = method;
         this.receiver = receiver;
         this.arguments = arguments;
+        this.hash = mix(31 * (31 * method.hashCode() + receiver.hashCode()) + Arrays.hashCode(arguments));
+    }
+
+    /**
+     * The finalizer of MurmurHash3. Without it, the hash codes of nodes would be linear in those of their
+     * descendants, and the many small trees built during enumeration would collide.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ hash >>> 16;
     }
 
+    /**
+     * Returns the name of the called method.
+     *
+     * @return The name of the method
+     */
+    public @NotNull String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the receiver of the method call.
+     *
+     * @return The receiver
+     */
+    public @NotNull AstNode<?> getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * Returns the arguments of the method call.
+     *
+     * @return The arguments
+     */
+    public List<AstNode<?>> getArguments() {
+        return List.of(arguments);
+    }
 
     @SafeVarargs
     @Override
@@ -37,28 +130,136 @@ public class MethodCallNode<T> implements AstNode<T> {
         for (int i = 0; i < arguments.length; i++) {
             evaluatedArguments[i] = arguments[i].evaluate(variables);
         }
-        Class<?>[] argumentTypes = new Class[arguments.length];
+        return apply(evaluatedReceiver, evaluatedArguments);
+    }
+
+    /**
+     * Calls the method of this node on already evaluated values.
+     * Exceptions thrown by the method are rethrown as is if they are unchecked,
+     * and wrapped in a {@link RuntimeException} otherwise.
+     *
+     * @param receiver  The receiver
+     * @param arguments The arguments
+     * @return The result of the call
+     * @throws RuntimeException If there is no matching method
+     */
+    public T apply(Object receiver, Object... arguments) {
+        Dispatch current = dispatch;
+        if (current == null || !current.matches(receiver, arguments)) {
+            current = resolve(method, receiver, arguments);
+            dispatch = current;
+        }
+        if (current.handle() == null) {
+            throw new RuntimeException("Method " + method + " not found");
+        }
+        try {
+            return (T) (Object) current.handle().invokeExact(receiver, arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Dispatch resolve(String method, Object receiver, Object[] arguments) {
+        Class<?>[] argumentClasses = new Class[arguments.length];
         for (int i = 0; i < arguments.length; i++) {
-            argumentTypes[i] = evaluatedArguments[i].getClass();
-            if (argumentTypes[i].equals(ConcreteMatrix.class) || argumentTypes[i].equals(AbstractMatrix.class)) {
-                argumentTypes[i] = IMatrix.class; // yes it's a hack sorry I know!
+            argumentClasses[i] = arguments[i].getClass();
+        }
+        Signature signature = new Signature(method, receiver.getClass(), List.of(argumentClasses));
+        return DISPATCHES.computeIfAbsent(signature,
+                key -> new Dispatch(key.receiverClass(), argumentClasses, findHandle(method, key.receiverClass(), argumentClasses)));
+    }
+
+    /**
+     * Returns a handle of type <code>(Object, Object[])Object</code> to the method to call,
+     * or null if there is no such method.
+     */
+    private static MethodHandle findHandle(String method, Class<?> receiverClass, Class<?>[] argumentClasses) {
+        MethodHandle handle = findDirectHandle(method, receiverClass, argumentClasses);
+        if (handle == null) {
+            return null;
+        }
+        return handle.asType(MethodType.genericMethodType(argumentClasses.length + 1))
+                .asSpreader(Object[].class, argumentClasses.length);
+    }
+
+    /**
+     * Returns a handle to the method to call, taking the receiver followed by the arguments
+     * (the receiver is ignored for a static method), or null if there is no such method.
+     */
+    static MethodHandle findDirectHandle(String method, Class<?> receiverClass, Class<?>[] argumentClasses) {
+        Method found = findMethod(method, receiverClass, argumentClasses);
+        if (found == null) {
+            return null;
+        }
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(found);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+        if (Modifier.isStatic(found.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, receiverClass);
+        }
+        return handle;
+    }
+
+    /**
+     * Finds the method to call: first among the methods declared by the receiver class and its superclasses,
+     * and then among its public methods, including default methods of interfaces.
+     * Matrix arguments match <code>IMatrix</code> parameters, and integers match <code>int</code> parameters.
+     * Bridge methods are skipped, so covariant overrides are preferred.
+     *
+     * @return The method, or null if there is no such method
+     */
+    static Method findMethod(String method, Class<?> receiverClass, Class<?>[] argumentClasses) {
+        Class<?>[] parameterTypes = new Class[argumentClasses.length];
+        for (int i = 0; i < argumentClasses.length; i++) {
+            parameterTypes[i] = argumentClasses[i];
+            if (parameterTypes[i].equals(ConcreteMatrix.class) || parameterTypes[i].equals(SparseMatrix.class)
+                    || parameterTypes[i].equals(AbstractMatrix.class)) {
+                parameterTypes[i] = IMatrix.class; // yes it's a hack sorry I know!
             }
-            if (argumentTypes[i].equals(Integer.class)) {
-                argumentTypes[i] = int.class;
+            if (parameterTypes[i].equals(Integer.class)) {
+                parameterTypes[i] = int.class;
             }
         }
-        Class<?> clazz = evaluatedReceiver.getClass();
-        do {
-            try {
-                return (T) clazz.getDeclaredMethod(method, argumentTypes)
-                        .invoke(evaluatedReceiver, evaluatedArguments);
-            } catch (NoSuchMethodException e) {
-                clazz = clazz.getSuperclass();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        Method found = null;
+        for (Class<?> clazz = receiverClass; clazz != null && clazz != Object.class && found == null;
+             clazz = clazz.getSuperclass()) {
+            found = find(clazz.getDeclaredMethods(), method, parameterTypes);
+        }
+        if (found == null) {
+            found = find(receiverClass.getMethods(), method, parameterTypes);
+        }
+        return found;
+    }
+
+    private static Method find(Method[] methods, String name, Class<?>[] parameterTypes) {
+        for (Method candidate : methods) {
+            if (!candidate.isBridge() && candidate.getName().equals(name)
+                    && Arrays.equals(candidate.getParameterTypes(), parameterTypes)) {
+                return candidate;
             }
-        } while (clazz.getSuperclass() != null);
-        throw new RuntimeException("Method " + method + " not found");
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MethodCallNode<?> other) || hash != other.hash) {
+            return false;
+        }
+        return method.equals(other.method) && receiver.equals(other.receiver) && Arrays.equals(arguments, other.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
     }
 
     @Override
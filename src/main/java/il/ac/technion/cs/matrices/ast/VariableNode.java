@@ -21,12 +21,31 @@ public class VariableNode<T> implements AstNode<T> {
         this.index = index;
     }
 
+    /**
+     * Returns the index of the variable.
+     *
+     * @return The index
+     */
+    public int getIndex() {
+        return index;
+    }
+
     @SafeVarargs
     @Override
     public final T evaluate(Object... variables) {
         return (T) variables[index];
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        return this == obj || obj instanceof VariableNode<?> other && index == other.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(index);
+    }
+
     @Override
     public String toString() {
         return "var" + index;
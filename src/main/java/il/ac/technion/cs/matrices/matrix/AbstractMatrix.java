@@ -1,12 +1,23 @@
 package il.ac.technion.cs.matrices.matrix;
 
+import io.github.cvc5.CVC5ApiException;
 import io.github.cvc5.Kind;
+import io.github.cvc5.Pair;
 import io.github.cvc5.Solver;
 import io.github.cvc5.Sort;
 import io.github.cvc5.Term;
+import io.github.cvc5.TermManager;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This class is an implementation of a matrix
@@ -15,15 +26,44 @@ import java.util.List;
  * The matrix is 0-indexed and its entries are
  * stored in a row-major order.
  * Objects of this class are expected to be immutable.
+ * <p>
+ * As in {@link ConcreteMatrix}, {@link #dropRow}, {@link #dropColumn}, {@link #transpose} and
+ * {@link #resize} take constant time and return a view over their source matrix, which is
+ * materialized only when all of its entries are needed, or when the chain of views gets too deep.
+ * {@link #exceptAt} copies only the modified rows, and shares all other rows with its source.
+ * <p>
+ * The arithmetic operations simplify the terms they create: multiplications by zero and one, double negations,
+ * and operations on constants, are folded, and every dot product or sum is a single n-ary addition.
+ * So products with identity and zero matrices stay as small as their operands. Operands that are sums
+ * themselves are not flattened into it, since copying their summands would lose their sharing.
+ * {@link #getTermSize()} and {@link #getTermDepth()} measure the terms of a matrix.
+ * <p>
+ * Every matrix is bound to a {@link SolverContext}, which creates its terms. Constructors and factory methods
+ * that do not take a context use the default context of the current thread, {@link SolverContext#current()}.
  *
  * @author kinsbruner
  * @version 1.0
  */
 public final class AbstractMatrix implements IMatrix<Term> {
+    private enum View {TRANSPOSE, DROP_ROW, DROP_COLUMN, RESIZE}
+
     private final int rows;
     private final int columns;
-    private final Term[][] data;
-    public static final Solver solver = new Solver();
+    /**
+     * The entries, or null if this is a view that has not been materialized.
+     * Rows may be shared between matrices, and are never modified once the matrix is constructed.
+     */
+    private volatile Term[][] data;
+    /**
+     * For a view: the matrix whose entries are remapped, the kind of remapping,
+     * the dropped row or column (if any), and the length of the chain of views up to actual entries.
+     * For a matrix that was not created as a view, the source is null.
+     */
+    private final AbstractMatrix source;
+    private final View view;
+    private final int dropped;
+    private final int depth;
+    private final SolverContext context;
 
     /**
      * Constructs a new matrix with the given dimensions
@@ -34,6 +74,19 @@ public final class AbstractMatrix implements IMatrix<Term> {
      * @throws IllegalArgumentException If the number of rows or columns is non-positive
      */
     public AbstractMatrix(int rows, int columns) {
+        this(SolverContext.current(), rows, columns);
+    }
+
+    /**
+     * Constructs a new matrix of the given context with the given dimensions
+     * and initializes all entries to constant zero.
+     *
+     * @param context The context of the matrix
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @throws IllegalArgumentException If the number of rows or columns is non-positive
+     */
+    public AbstractMatrix(SolverContext context, int rows, int columns) {
         if (rows <= 0) {
             throw new IllegalArgumentException("The number of rows must be positive");
         }
@@ -43,11 +96,17 @@ public final class AbstractMatrix implements IMatrix<Term> {
         this.rows = rows;
         this.columns = columns;
         this.data = new Term[rows][columns];
+        Term zero = context.zero();
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                data[i][j] = solver.mkReal(0);
+                data[i][j] = zero;
             }
         }
+        this.source = null;
+        this.view = null;
+        this.dropped = 0;
+        this.depth = 0;
+        this.context = context;
     }
 
     /**
@@ -58,6 +117,18 @@ public final class AbstractMatrix implements IMatrix<Term> {
      * @throws IllegalArgumentException If the matrix is empty or not rectangular
      */
     public AbstractMatrix(Term[][] data) {
+        this(SolverContext.current(), data);
+    }
+
+    /**
+     * Constructs a new matrix of the given context with the given entries, which must be terms of the context.
+     * Note that this operation <b>copies the given matrix</b>.
+     *
+     * @param context The context of the matrix
+     * @param data    The entries of the matrix
+     * @throws IllegalArgumentException If the matrix is empty or not rectangular
+     */
+    public AbstractMatrix(SolverContext context, Term[][] data) {
         if (data.length == 0) {
             throw new IllegalArgumentException("The matrix must have at least one row");
         }
@@ -77,6 +148,39 @@ public final class AbstractMatrix implements IMatrix<Term> {
         for (int i = 0; i < rows; i++) {
             System.arraycopy(data[i], 0, this.data[i], 0, columns);
         }
+        this.source = null;
+        this.view = null;
+        this.dropped = 0;
+        this.depth = 0;
+        this.context = context;
+    }
+
+    /**
+     * Constructs a new matrix of the given context which takes ownership of the given rows, without copying them.
+     */
+    private AbstractMatrix(SolverContext context, Term[][] data, int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = data;
+        this.source = null;
+        this.view = null;
+        this.dropped = 0;
+        this.depth = 0;
+        this.context = context;
+    }
+
+    /**
+     * Constructs a view over the given source matrix.
+     */
+    private AbstractMatrix(AbstractMatrix source, View view, int dropped, int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = null;
+        this.source = source;
+        this.view = view;
+        this.dropped = dropped;
+        this.depth = source.viewDepth() + 1;
+        this.context = source.context;
     }
 
     /**
@@ -87,12 +191,24 @@ public final class AbstractMatrix implements IMatrix<Term> {
      * @throws IllegalArgumentException If the size is non-positive
      */
     public static AbstractMatrix identity(int size) {
+        return identity(SolverContext.current(), size);
+    }
+
+    /**
+     * Constructs an identity matrix of the given context and size.
+     *
+     * @param context The context of the matrix
+     * @param size    The size of the matrix
+     * @return The new identity matrix
+     * @throws IllegalArgumentException If the size is non-positive
+     */
+    public static AbstractMatrix identity(SolverContext context, int size) {
         if (size <= 0) {
             throw new IllegalArgumentException("The size must be positive");
         }
-        AbstractMatrix ret = new AbstractMatrix(size, size);
+        AbstractMatrix ret = new AbstractMatrix(context, size, size);
         for (int i = 0; i < size; i++) {
-            ret.data[i][i] = solver.mkReal(1);
+            ret.data[i][i] = context.one();
         }
         return ret;
     }
@@ -102,7 +218,7 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (getRows() != getColumns()) {
             throw new UnsupportedOperationException("The matrix must be square");
         }
-        return identity(getRows());
+        return identity(context, getRows());
     }
 
     /**
@@ -117,9 +233,48 @@ public final class AbstractMatrix implements IMatrix<Term> {
         return new AbstractMatrix(rows, columns);
     }
 
+    /**
+     * Constructs a matrix of the given context and size with all entries set to zero.
+     *
+     * @param context The context of the matrix
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @return The new zero matrix
+     * @throws IllegalArgumentException If the number of rows or columns is non-positive
+     */
+    public static AbstractMatrix zeros(SolverContext context, int rows, int columns) {
+        return new AbstractMatrix(context, rows, columns);
+    }
+
     @Override
     public AbstractMatrix zerosLike() {
-        return zeros(getRows(), getColumns());
+        return zeros(context, getRows(), getColumns());
+    }
+
+    /**
+     * Constructs a matrix of the given context whose entries are the constants of the given real matrix.
+     * The entries are converted exactly, as the rationals that the doubles represent.
+     *
+     * @param context The context of the matrix
+     * @param matrix  The real matrix
+     * @return The new matrix
+     * @throws IllegalArgumentException If an entry is not finite
+     */
+    public static AbstractMatrix of(SolverContext context, IMatrix<Double> matrix) {
+        Term[][] data = new Term[matrix.getRows()][matrix.getColumns()];
+        for (int i = 0; i < data.length; i++) {
+            for (int j = 0; j < data[i].length; j++) {
+                double entry = matrix.get(i, j);
+                if (!Double.isFinite(entry)) {
+                    throw new IllegalArgumentException("The entries must be finite");
+                }
+                BigDecimal exact = new BigDecimal(entry);
+                data[i][j] = exact.scale() > 0
+                        ? context.real(exact.unscaledValue(), BigInteger.TEN.pow(exact.scale()))
+                        : context.real(exact.toBigInteger(), BigInteger.ONE);
+            }
+        }
+        return new AbstractMatrix(context, data, data.length, data[0].length);
     }
 
     /**
@@ -131,13 +286,28 @@ public final class AbstractMatrix implements IMatrix<Term> {
      * @return The new matrix
      */
     public static AbstractMatrix fresh(int rows, int columns, String tag) {
+        return fresh(SolverContext.current(), rows, columns, tag);
+    }
+
+    /**
+     * Constructs a new matrix of the given context with the given dimensions and fresh variable entries.
+     *
+     * @param context The context of the matrix
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @param tag     A tag to add to the variable names
+     * @return The new matrix
+     */
+    public static AbstractMatrix fresh(SolverContext context, int rows, int columns, String tag) {
+        Solver solver = context.getSolver();
+        Sort real = context.getTermManager().getRealSort();
         Term[][] data = new Term[rows][columns];
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                data[i][j] = solver.declareFun("x" + i + "_" + j + "_" + tag, new Sort[]{}, solver.getRealSort());
+                data[i][j] = solver.declareFun("x" + i + "_" + j + "_" + tag, new Sort[]{}, real);
             }
         }
-        return new AbstractMatrix(data);
+        return new AbstractMatrix(context, data);
     }
 
     /**
@@ -147,7 +317,16 @@ public final class AbstractMatrix implements IMatrix<Term> {
      * @return The new matrix
      */
     public AbstractMatrix freshLike(String tag) {
-        return fresh(getRows(), getColumns(), tag);
+        return fresh(context, getRows(), getColumns(), tag);
+    }
+
+    /**
+     * Returns the context this matrix is bound to.
+     *
+     * @return The context
+     */
+    public SolverContext getContext() {
+        return context;
     }
 
     @Override
@@ -168,7 +347,73 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (column < 0 || column >= columns) {
             throw new IndexOutOfBoundsException("The column index is out of bounds");
         }
-        return data[row][column];
+        return at(row, column);
+    }
+
+    /**
+     * Returns the entry at the given row and column, without bounds checks.
+     * For a view that has not been materialized, this goes through the chain of views.
+     */
+    private Term at(int row, int column) {
+        Term[][] entries = data;
+        if (entries != null) {
+            return entries[row][column];
+        }
+        return switch (view) {
+            case TRANSPOSE -> source.at(column, row);
+            case DROP_ROW -> source.at(row < dropped ? row : row + 1, column);
+            case DROP_COLUMN -> source.at(row, column < dropped ? column : column + 1);
+            case RESIZE -> {
+                int index = row * columns + column;
+                yield source.at(index / source.columns, index % source.columns);
+            }
+        };
+    }
+
+    /**
+     * @return The number of views between this matrix and actual entries
+     */
+    private int viewDepth() {
+        return data != null ? 0 : depth;
+    }
+
+    /**
+     * Returns a new view over this matrix. If the chain of views would become too deep,
+     * this matrix is materialized first, so the new view goes straight to actual entries.
+     */
+    private AbstractMatrix view(View view, int dropped, int newRows, int newColumns) {
+        if (viewDepth() >= ConcreteMatrix.MAX_VIEW_DEPTH) {
+            entries();
+        }
+        return new AbstractMatrix(this, view, dropped, newRows, newColumns);
+    }
+
+    /**
+     * Returns the entries of this matrix, materializing them first if this is a view.
+     *
+     * @return The entries of this matrix, which must not be modified
+     */
+    private Term[][] entries() {
+        Term[][] entries = data;
+        if (entries == null) {
+            entries = new Term[rows][];
+            Term[][] sourceEntries = source.data;
+            if (view == View.DROP_ROW && sourceEntries != null) {
+                // Rows are never modified, so they can be shared with the source
+                for (int i = 0; i < rows; i++) {
+                    entries[i] = sourceEntries[i < dropped ? i : i + 1];
+                }
+            } else {
+                for (int i = 0; i < rows; i++) {
+                    entries[i] = new Term[columns];
+                    for (int j = 0; j < columns; j++) {
+                        entries[i][j] = at(i, j);
+                    }
+                }
+            }
+            data = entries;
+        }
+        return entries;
     }
 
     @Override
@@ -179,13 +424,33 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (column < 0 || column >= columns) {
             throw new IndexOutOfBoundsException("The column index is out of bounds");
         }
-        Term[][] newData = new Term[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                newData[i][j] = i == row && j == column ? value : data[i][j];
+        Term[][] newData = entries().clone();
+        newData[row] = newData[row].clone();
+        newData[row][column] = value;
+        return new AbstractMatrix(context, newData, rows, columns);
+    }
+
+    @Override
+    public AbstractMatrix exceptAt(int[] rows, int[] columns, List<Term> values) {
+        if (rows.length != columns.length || rows.length != values.size()) {
+            throw new IllegalArgumentException("The index and value arrays must have the same length");
+        }
+        Term[][] entries = entries();
+        Term[][] newData = entries.clone();
+        for (int k = 0; k < rows.length; k++) {
+            if (rows[k] < 0 || rows[k] >= this.rows) {
+                throw new IndexOutOfBoundsException("The row index is out of bounds");
+            }
+            if (columns[k] < 0 || columns[k] >= this.columns) {
+                throw new IndexOutOfBoundsException("The column index is out of bounds");
+            }
+            // Every modified row is copied once
+            if (newData[rows[k]] == entries[rows[k]]) {
+                newData[rows[k]] = entries[rows[k]].clone();
             }
+            newData[rows[k]][columns[k]] = values.get(k);
         }
-        return new AbstractMatrix(newData);
+        return new AbstractMatrix(context, newData, this.rows, this.columns);
     }
 
 
@@ -194,14 +459,7 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (row < 0 || row >= rows) {
             throw new IndexOutOfBoundsException("The row index is out of bounds");
         }
-        Term[][] newData = new Term[rows - 1][columns];
-        for (int i = 0; i < rows; i++) {
-            if (i == row) {
-                continue;
-            }
-            System.arraycopy(data[i], 0, newData[i < row ? i : i - 1], 0, columns);
-        }
-        return new AbstractMatrix(newData);
+        return view(View.DROP_ROW, row, rows - 1, columns);
     }
 
 
@@ -210,28 +468,16 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (column < 0 || column >= columns) {
             throw new IndexOutOfBoundsException("The column index is out of bounds");
         }
-        Term[][] newData = new Term[rows][columns - 1];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                if (j == column) {
-                    continue;
-                }
-                newData[i][j < column ? j : j - 1] = data[i][j];
-            }
-        }
-        return new AbstractMatrix(newData);
+        return view(View.DROP_COLUMN, column, rows, columns - 1);
     }
 
 
     @Override
     public AbstractMatrix transpose() {
-        Term[][] newData = new Term[columns][rows];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                newData[j][i] = data[i][j];
-            }
+        if (data == null && view == View.TRANSPOSE) {
+            return source;
         }
-        return new AbstractMatrix(newData);
+        return view(View.TRANSPOSE, 0, columns, rows);
     }
 
 
@@ -240,30 +486,32 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (columns != other.getRows()) {
             throw new IllegalArgumentException("The number of columns of the first matrix must be equal to the number of rows of the second matrix");
         }
+        checkContext(other);
+        Term[][] entries = entries();
         Term[][] newData = new Term[rows][other.getColumns()];
+        Term[] products = new Term[columns];
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < other.getColumns(); j++) {
-                Term sum = solver.mkReal(0);
                 for (int k = 0; k < columns; k++) {
-                    sum = solver.mkTerm(Kind.ADD, sum,
-                            solver.mkTerm(Kind.MULT, data[i][k], other.get(k, j)));
+                    products[k] = product(entries[i][k], other.get(k, j));
                 }
-                newData[i][j] = sum;
+                newData[i][j] = sum(products);
             }
         }
-        return new AbstractMatrix(newData);
+        return new AbstractMatrix(context, newData, rows, other.getColumns());
     }
 
 
     @Override
     public AbstractMatrix multiply(Term scalar) {
+        Term[][] entries = entries();
         Term[][] newData = new Term[rows][columns];
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                newData[i][j] = solver.mkTerm(Kind.MULT, data[i][j], scalar);
+                newData[i][j] = product(entries[i][j], scalar);
             }
         }
-        return new AbstractMatrix(newData);
+        return new AbstractMatrix(context, newData, rows, columns);
     }
 
     @Override
@@ -271,24 +519,27 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (rows != other.getRows() || columns != other.getColumns()) {
             throw new IllegalArgumentException("The matrices must have the same dimensions");
         }
+        checkContext(other);
+        Term[][] entries = entries();
         Term[][] newData = new Term[rows][columns];
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                newData[i][j] = solver.mkTerm(Kind.ADD, data[i][j], other.get(i, j));
+                newData[i][j] = sum(entries[i][j], other.get(i, j));
             }
         }
-        return new AbstractMatrix(newData);
+        return new AbstractMatrix(context, newData, rows, columns);
     }
 
     @Override
     public AbstractMatrix negate() {
+        Term[][] entries = entries();
         Term[][] newData = new Term[rows][columns];
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                newData[i][j] = solver.mkTerm(Kind.ADD, data[i][j]);
+                newData[i][j] = negation(entries[i][j]);
             }
         }
-        return new AbstractMatrix(newData);
+        return new AbstractMatrix(context, newData, rows, columns);
     }
 
     @Override
@@ -296,15 +547,10 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (newRows * newColumns != rows * columns) {
             throw new IllegalArgumentException("The number of entries must remain the same");
         }
-        Term[][] newData = new Term[newRows][newColumns];
-        Term[] entries = new Term[rows * columns];
-        for (int i = 0; i < rows; i++) {
-            System.arraycopy(data[i], 0, entries, i * columns, columns);
-        }
-        for (int i = 0; i < newRows; i++) {
-            System.arraycopy(entries, i * newColumns, newData[i], 0, newColumns);
+        if (data == null && view == View.RESIZE) {
+            return source.resize(newRows, newColumns);
         }
-        return new AbstractMatrix(newData);
+        return view(View.RESIZE, 0, newRows, newColumns);
     }
 
     @Override
@@ -320,7 +566,7 @@ public final class AbstractMatrix implements IMatrix<Term> {
         }
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                if (!data[i][j].equals(other.data[i][j])) {
+                if (!at(i, j).equals(other.at(i, j))) {
                     return false;
                 }
             }
@@ -347,7 +593,7 @@ public final class AbstractMatrix implements IMatrix<Term> {
                 if (j > 0) {
                     sb.append(", ");
                 }
-                sb.append(data[i][j]);
+                sb.append(at(i, j));
             }
         }
         sb.append("]");
@@ -358,12 +604,182 @@ public final class AbstractMatrix implements IMatrix<Term> {
         if (rows != other.rows || columns != other.columns) {
             throw new IllegalArgumentException("The matrices must have the same dimensions");
         }
+        checkContext(other);
+        TermManager terms = context.getTermManager();
         List<Term> constraints = new ArrayList<>();
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < columns; j++) {
-                constraints.add(solver.mkTerm(Kind.EQUAL, data[i][j], other.data[i][j]));
+                constraints.add(terms.mkTerm(Kind.EQUAL, at(i, j), other.at(i, j)));
             }
         }
         return constraints;
     }
+
+    /**
+     * Returns the size of the entries of this matrix as a DAG: the number of distinct terms in them,
+     * plus the number of children of each, counting shared subterms once.
+     * This is the size of the formulas this matrix gives to the solver.
+     *
+     * @return The size of the terms
+     */
+    public long getTermSize() {
+        Set<Term> seen = new HashSet<>();
+        Deque<Term> pending = new ArrayDeque<>();
+        for (Term[] row : entries()) {
+            for (Term entry : row) {
+                if (seen.add(entry)) {
+                    pending.push(entry);
+                }
+            }
+        }
+        long children = 0;
+        while (!pending.isEmpty()) {
+            Term term = pending.pop();
+            children += term.getNumChildren();
+            for (Term child : term) {
+                if (seen.add(child)) {
+                    pending.push(child);
+                }
+            }
+        }
+        return seen.size() + children;
+    }
+
+    /**
+     * Returns the largest depth of an entry of this matrix, where constants and variables have depth zero.
+     *
+     * @return The largest depth
+     */
+    public int getTermDepth() {
+        Map<Term, Integer> depths = new HashMap<>();
+        int depth = 0;
+        for (Term[] row : entries()) {
+            for (Term entry : row) {
+                depth = Math.max(depth, depth(entry, depths));
+            }
+        }
+        return depth;
+    }
+
+    private static int depth(Term term, Map<Term, Integer> depths) {
+        Integer known = depths.get(term);
+        if (known != null) {
+            return known;
+        }
+        int depth = 0;
+        for (Term child : term) {
+            depth = Math.max(depth, depth(child, depths) + 1);
+        }
+        depths.put(term, depth);
+        return depth;
+    }
+
+    /**
+     * Returns the product of the given terms, folding multiplications by zero and one, and of two constants.
+     */
+    private Term product(Term a, Term b) {
+        if (isConstant(a, 0) || isConstant(b, 0)) {
+            return context.zero();
+        }
+        if (isConstant(a, 1)) {
+            return b;
+        }
+        if (isConstant(b, 1)) {
+            return a;
+        }
+        if (a.isRealValue() && b.isRealValue()) {
+            Pair<BigInteger, BigInteger> x = a.getRealValue();
+            Pair<BigInteger, BigInteger> y = b.getRealValue();
+            return rational(x.first.multiply(y.first), x.second.multiply(y.second));
+        }
+        return context.getTermManager().mkTerm(Kind.MULT, a, b);
+    }
+
+    /**
+     * Returns the negation of the given term, folding constants and double negations.
+     */
+    private Term negation(Term term) {
+        if (term.isRealValue()) {
+            Pair<BigInteger, BigInteger> value = term.getRealValue();
+            return rational(value.first.negate(), value.second);
+        }
+        if (kind(term) == Kind.NEG) {
+            return child(term, 0);
+        }
+        return context.getTermManager().mkTerm(Kind.NEG, term);
+    }
+
+    /**
+     * Returns the sum of the given terms as a single n-ary addition, with their constants folded into one,
+     * and zeros dropped. Sums among them are kept as they are, so a chain of additions grows linearly.
+     */
+    private Term sum(Term... summands) {
+        List<Term> terms = new ArrayList<>(summands.length);
+        BigInteger numerator = BigInteger.ZERO;
+        BigInteger denominator = BigInteger.ONE;
+        for (Term term : summands) {
+            if (term.isRealValue()) {
+                Pair<BigInteger, BigInteger> value = term.getRealValue();
+                numerator = numerator.multiply(value.second).add(value.first.multiply(denominator));
+                denominator = denominator.multiply(value.second);
+            } else {
+                terms.add(term);
+            }
+        }
+        if (numerator.signum() != 0) {
+            terms.add(rational(numerator, denominator));
+        }
+        return switch (terms.size()) {
+            case 0 -> context.zero();
+            case 1 -> terms.get(0);
+            default -> context.getTermManager().mkTerm(Kind.ADD, terms.toArray(new Term[0]));
+        };
+    }
+
+    /**
+     * Returns whether the given term is the given integer constant.
+     */
+    private static boolean isConstant(Term term, int value) {
+        if (!term.isRealValue()) {
+            return false;
+        }
+        Pair<BigInteger, BigInteger> rational = term.getRealValue();
+        return rational.second.equals(BigInteger.ONE) && rational.first.equals(BigInteger.valueOf(value));
+    }
+
+    /**
+     * Returns the constant of the given rational, reduced.
+     */
+    private Term rational(BigInteger numerator, BigInteger denominator) {
+        BigInteger gcd = numerator.gcd(denominator);
+        if (denominator.signum() < 0) {
+            gcd = gcd.negate();
+        }
+        return context.real(numerator.divide(gcd), denominator.divide(gcd));
+    }
+
+    private static Kind kind(Term term) {
+        try {
+            return term.getKind();
+        } catch (CVC5ApiException e) {
+            throw new IllegalStateException("The kind of the term cannot be read", e);
+        }
+    }
+
+    private static Term child(Term term, int index) {
+        try {
+            return term.getChild(index);
+        } catch (CVC5ApiException e) {
+            throw new IllegalStateException("The child of the term cannot be read", e);
+        }
+    }
+
+    /**
+     * Checks that the given matrix, if it is an abstract matrix, is bound to the same context as this one.
+     */
+    private void checkContext(IMatrix<Term> other) {
+        if (other instanceof AbstractMatrix matrix && matrix.context != context) {
+            throw new IllegalArgumentException("The matrices must belong to the same solver context");
+        }
+    }
 }
@@ -1,20 +1,77 @@
 package il.ac.technion.cs.matrices.matrix;
 
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * This class is a basic implementation of a matrix
  * with real-valued entries. It supports vectors represented
  * as n x 1 or 1 x n matrices
  * The matrix is 0-indexed and its entries are
- * stored in a row-major order.
+ * stored in a single contiguous array in row-major order,
+ * so entry <code>(i, j)</code> lives at index <code>i * columns + j</code>.
  * Objects of this class are expected to be immutable.
+ * <p>
+ * Since the entries never change, {@link #dropRow}, {@link #dropColumn}, {@link #transpose} and
+ * {@link #resize} take constant time: they return a <em>view</em>, which remaps indices onto its source
+ * matrix. A view computes its own row-major array only when an operation needs all of its entries
+ * (or when a chain of views would grow deeper than {@value #MAX_VIEW_DEPTH}), and keeps it from then on.
+ * Note that a view keeps its source matrix reachable.
+ * <p>
+ * Similarly, {@link #exceptAt} returns a view that overlays a small sorted set of patched entries
+ * on its source, so point updates take time logarithmic in the number of patches rather than
+ * linear in the size of the matrix. Once more than {@value #MAX_PATCHES} entries are patched,
+ * the result is copied into a matrix of its own.
  *
  * @author kinsbruner
  * @version 1.0
  */
 public final class ConcreteMatrix implements IMatrix<Double> {
+    /**
+     * The maximal number of views that {@link #get} may go through before reaching actual entries.
+     */
+    static final int MAX_VIEW_DEPTH = 8;
+    /**
+     * The maximal number of entries a patch view overlays on its source.
+     */
+    static final int MAX_PATCHES = 32;
+    /**
+     * The number of entries {@link #equals(Object)} compares before comparing all of them.
+     */
+    private static final int PROBES = 8;
+
+    private enum View {TRANSPOSE, DROP_ROW, DROP_COLUMN, RESIZE, PATCH}
+
     private final int rows;
     private final int columns;
-    private final double[][] data;
+    /**
+     * The entries in row-major order, or null if this is a view that has not been materialized.
+     */
+    private volatile double[] data;
+    /**
+     * For a view: the matrix whose entries are remapped, the kind of remapping,
+     * the dropped row or column (if any), and the length of the chain of views up to actual entries.
+     * For a matrix that was not created as a view, the source is null.
+     */
+    private final ConcreteMatrix source;
+    private final View view;
+    private final int dropped;
+    private final int depth;
+    /**
+     * For a patch view: the sorted row-major indices of the patched entries, and their values.
+     */
+    private final int[] patchedIndices;
+    private final double[] patchedValues;
+    /**
+     * The LU decomposition of this matrix, or null if it has not been computed yet.
+     */
+    private volatile LUDecomposition decomposition;
+    /**
+     * The hash code of this matrix, or zero if it has not been computed yet.
+     */
+    private int hash;
 
     /**
      * Constructs a new matrix with the given dimensions
@@ -33,7 +90,13 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         }
         this.rows = rows;
         this.columns = columns;
-        this.data = new double[rows][columns];
+        this.data = new double[rows * columns];
+        this.source = null;
+        this.view = null;
+        this.dropped = 0;
+        this.depth = 0;
+        this.patchedIndices = null;
+        this.patchedValues = null;
     }
 
     /**
@@ -59,10 +122,90 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         this.rows = data.length;
         this.columns = data[0].length;
         // deep clone
-        this.data = new double[rows][columns];
+        this.data = new double[rows * columns];
         for (int i = 0; i < rows; i++) {
-            System.arraycopy(data[i], 0, this.data[i], 0, columns);
+            System.arraycopy(data[i], 0, this.data, i * columns, columns);
+        }
+        this.source = null;
+        this.view = null;
+        this.dropped = 0;
+        this.depth = 0;
+        this.patchedIndices = null;
+        this.patchedValues = null;
+    }
+
+    /**
+     * Constructs a new matrix with the given entries, given in row-major order.
+     * Note that this operation <b>copies the given array</b>;
+     * see {@link #wrap(int, int, double[])} for a non-copying alternative.
+     *
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @param data    The entries of the matrix, in row-major order
+     * @throws IllegalArgumentException If the dimensions are non-positive or do not match the array length
+     */
+    public ConcreteMatrix(int rows, int columns, double[] data) {
+        this(checkFlat(rows, columns, data).clone(), rows, columns);
+    }
+
+    /**
+     * Constructs a matrix directly over the given row-major array, without copying it.
+     * The caller must be the sole owner of the array. This is not checked.
+     */
+    private ConcreteMatrix(double[] data, int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = data;
+        this.source = null;
+        this.view = null;
+        this.dropped = 0;
+        this.depth = 0;
+        this.patchedIndices = null;
+        this.patchedValues = null;
+    }
+
+    /**
+     * Constructs a view over the given source matrix.
+     */
+    private ConcreteMatrix(ConcreteMatrix source, View view, int dropped, int rows, int columns,
+                           int[] patchedIndices, double[] patchedValues) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = null;
+        this.source = source;
+        this.view = view;
+        this.dropped = dropped;
+        this.depth = source.viewDepth() + 1;
+        this.patchedIndices = patchedIndices;
+        this.patchedValues = patchedValues;
+    }
+
+    private static double[] checkFlat(int rows, int columns, double[] data) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("The number of rows must be positive");
+        }
+        if (columns <= 0) {
+            throw new IllegalArgumentException("The number of columns must be positive");
         }
+        if (data.length != rows * columns) {
+            throw new IllegalArgumentException("The array length must be equal to the number of entries");
+        }
+        return data;
+    }
+
+    /**
+     * Constructs a matrix backed by the given row-major array, <b>without copying it</b>.
+     * The caller hands over ownership of the array: mutating it afterwards
+     * breaks the immutability of the returned matrix.
+     *
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @param data    The entries of the matrix, in row-major order
+     * @return The new matrix
+     * @throws IllegalArgumentException If the dimensions are non-positive or do not match the array length
+     */
+    public static ConcreteMatrix wrap(int rows, int columns, double[] data) {
+        return new ConcreteMatrix(checkFlat(rows, columns, data), rows, columns);
     }
 
     /**
@@ -76,11 +219,11 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (size <= 0) {
             throw new IllegalArgumentException("The size must be positive");
         }
-        double[][] data = new double[size][size];
+        double[] data = new double[size * size];
         for (int i = 0; i < size; i++) {
-            data[i][i] = 1;
+            data[i * size + i] = 1;
         }
-        return new ConcreteMatrix(data);
+        return new ConcreteMatrix(data, size, size);
     }
 
     /**
@@ -126,7 +269,130 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (column < 0 || column >= columns) {
             throw new IndexOutOfBoundsException("The column index is out of bounds");
         }
-        return data[row][column];
+        return at(row, column);
+    }
+
+    /**
+     * Returns the entry at the given row and column, without bounds checks.
+     * For a view that has not been materialized, this goes through the chain of views.
+     */
+    private double at(int row, int column) {
+        double[] entries = data;
+        if (entries != null) {
+            return entries[row * columns + column];
+        }
+        return switch (view) {
+            case TRANSPOSE -> source.at(column, row);
+            case DROP_ROW -> source.at(row < dropped ? row : row + 1, column);
+            case DROP_COLUMN -> source.at(row, column < dropped ? column : column + 1);
+            case RESIZE -> {
+                int index = row * columns + column;
+                yield source.at(index / source.columns, index % source.columns);
+            }
+            case PATCH -> {
+                int position = Arrays.binarySearch(patchedIndices, row * columns + column);
+                yield position >= 0 ? patchedValues[position] : source.at(row, column);
+            }
+        };
+    }
+
+    /**
+     * @return The number of views between this matrix and actual entries
+     */
+    private int viewDepth() {
+        return data != null ? 0 : depth;
+    }
+
+    /**
+     * Returns a new view over this matrix. If the chain of views would become too deep,
+     * this matrix is materialized first, so the new view goes straight to actual entries.
+     */
+    private ConcreteMatrix view(View view, int dropped, int newRows, int newColumns) {
+        if (viewDepth() >= MAX_VIEW_DEPTH) {
+            rowMajor();
+        }
+        return new ConcreteMatrix(this, view, dropped, newRows, newColumns, null, null);
+    }
+
+    /**
+     * Computes the entries of this view.
+     * Only the entries of the direct source are used, and only if they already exist,
+     * so that materializing a chain of views does not materialize the views in between.
+     */
+    private double[] materialize() {
+        double[] sourceEntries = source.data;
+        if (sourceEntries == null) {
+            double[] entries = new double[rows * columns];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    entries[i * columns + j] = at(i, j);
+                }
+            }
+            return entries;
+        }
+        return switch (view) {
+            case TRANSPOSE -> {
+                double[] entries = new double[rows * columns];
+                DenseKernels.transpose(sourceEntries, entries, source.rows, source.columns);
+                yield entries;
+            }
+            case DROP_ROW -> {
+                double[] entries = new double[rows * columns];
+                System.arraycopy(sourceEntries, 0, entries, 0, dropped * columns);
+                System.arraycopy(sourceEntries, (dropped + 1) * columns, entries, dropped * columns, (rows - dropped) * columns);
+                yield entries;
+            }
+            case DROP_COLUMN -> {
+                double[] entries = new double[rows * columns];
+                for (int i = 0; i < rows; i++) {
+                    System.arraycopy(sourceEntries, i * source.columns, entries, i * columns, dropped);
+                    System.arraycopy(sourceEntries, i * source.columns + dropped + 1, entries, i * columns + dropped, columns - dropped);
+                }
+                yield entries;
+            }
+            // Row-major storage is shape-agnostic, and the source is immutable, so the array can be shared
+            case RESIZE -> sourceEntries;
+            case PATCH -> {
+                double[] entries = sourceEntries.clone();
+                for (int p = 0; p < patchedIndices.length; p++) {
+                    entries[patchedIndices[p]] = patchedValues[p];
+                }
+                yield entries;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the entries of this matrix, in row-major order.
+     *
+     * @return A new array of length <code>rows * columns</code>
+     */
+    public double[] toArray() {
+        return rowMajor().clone();
+    }
+
+    /**
+     * Returns the backing row-major array of this matrix, materializing it first if this is a view.
+     *
+     * @return The backing row-major array of this matrix, which must not be modified
+     */
+    double[] rowMajor() {
+        double[] entries = data;
+        if (entries == null) {
+            entries = materialize();
+            data = entries;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns a read-only view of the entries of this matrix, in row-major order.
+     * The entries are not copied.
+     *
+     * @return A read-only buffer of length <code>rows * columns</code>
+     */
+    public DoubleBuffer asBuffer() {
+        return DoubleBuffer.wrap(rowMajor()).asReadOnlyBuffer();
     }
 
     @Override
@@ -137,13 +403,103 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (column < 0 || column >= columns) {
             throw new IndexOutOfBoundsException("The column index is out of bounds");
         }
-        double[][] newData = new double[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                newData[i][j] = i == row && j == column ? value : data[i][j];
+        return patch(new int[]{row * columns + column}, new double[]{value});
+    }
+
+    /**
+     * Returns a copy of this matrix which is identical for all entries except for
+     * <code>(rows[k], columns[k])</code>, which is set to <code>values[k]</code> for every <code>k</code>.
+     * If an entry is given more than once, the last value is used.
+     *
+     * @param rows    The row indices
+     * @param columns The column indices
+     * @param values  The new values of the entries
+     * @return The new matrix
+     * @throws IllegalArgumentException  If the arrays do not have the same length
+     * @throws IndexOutOfBoundsException If a row or column index is out of bounds
+     */
+    public ConcreteMatrix exceptAt(int[] rows, int[] columns, double[] values) {
+        if (rows.length != columns.length || rows.length != values.length) {
+            throw new IllegalArgumentException("The index and value arrays must have the same length");
+        }
+        // Sort by entry, then by position, so that the last occurrence of every entry wins
+        long[] keys = new long[rows.length];
+        for (int k = 0; k < rows.length; k++) {
+            if (rows[k] < 0 || rows[k] >= this.rows) {
+                throw new IndexOutOfBoundsException("The row index is out of bounds");
+            }
+            if (columns[k] < 0 || columns[k] >= this.columns) {
+                throw new IndexOutOfBoundsException("The column index is out of bounds");
             }
+            keys[k] = (long) (rows[k] * this.columns + columns[k]) << 32 | k;
+        }
+        Arrays.sort(keys);
+        int[] indices = new int[keys.length];
+        double[] newValues = new double[keys.length];
+        int count = 0;
+        for (int k = 0; k < keys.length; k++) {
+            int index = (int) (keys[k] >>> 32);
+            if (count > 0 && indices[count - 1] == index) {
+                count--;
+            }
+            indices[count] = index;
+            newValues[count] = values[(int) keys[k]];
+            count++;
         }
-        return new ConcreteMatrix(newData);
+        return patch(Arrays.copyOf(indices, count), Arrays.copyOf(newValues, count));
+    }
+
+    @Override
+    public ConcreteMatrix exceptAt(int[] rows, int[] columns, List<Double> values) {
+        double[] unboxed = new double[values.size()];
+        for (int k = 0; k < unboxed.length; k++) {
+            unboxed[k] = values.get(k);
+        }
+        return exceptAt(rows, columns, unboxed);
+    }
+
+    /**
+     * Returns a patch view of this matrix with the given entries replaced.
+     * Patching a patch view merges the patches over the same source, so chains of point updates stay flat.
+     *
+     * @param indices The sorted, distinct row-major indices of the entries to replace
+     * @param values  The new values of the entries
+     */
+    private ConcreteMatrix patch(int[] indices, double[] values) {
+        ConcreteMatrix base = this;
+        if (data == null && view == View.PATCH) {
+            base = source;
+            int[] mergedIndices = new int[patchedIndices.length + indices.length];
+            double[] mergedValues = new double[mergedIndices.length];
+            int count = 0;
+            int p = 0;
+            int q = 0;
+            while (p < patchedIndices.length || q < indices.length) {
+                if (q >= indices.length || (p < patchedIndices.length && patchedIndices[p] < indices[q])) {
+                    mergedIndices[count] = patchedIndices[p];
+                    mergedValues[count++] = patchedValues[p++];
+                } else {
+                    if (p < patchedIndices.length && patchedIndices[p] == indices[q]) {
+                        p++; // overridden by the new value
+                    }
+                    mergedIndices[count] = indices[q];
+                    mergedValues[count++] = values[q++];
+                }
+            }
+            indices = Arrays.copyOf(mergedIndices, count);
+            values = Arrays.copyOf(mergedValues, count);
+        }
+        if (indices.length > MAX_PATCHES) {
+            double[] newData = base.rowMajor().clone();
+            for (int k = 0; k < indices.length; k++) {
+                newData[indices[k]] = values[k];
+            }
+            return new ConcreteMatrix(newData, rows, columns);
+        }
+        if (base.viewDepth() >= MAX_VIEW_DEPTH) {
+            base.rowMajor();
+        }
+        return new ConcreteMatrix(base, View.PATCH, 0, rows, columns, indices, values);
     }
 
     @Override
@@ -151,14 +507,7 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (row < 0 || row >= rows) {
             throw new IndexOutOfBoundsException("The row index is out of bounds");
         }
-        double[][] newData = new double[rows - 1][columns];
-        for (int i = 0; i < rows; i++) {
-            if (i == row) {
-                continue;
-            }
-            System.arraycopy(data[i], 0, newData[i < row ? i : i - 1], 0, columns);
-        }
-        return new ConcreteMatrix(newData);
+        return view(View.DROP_ROW, row, rows - 1, columns);
     }
 
     @Override
@@ -166,27 +515,15 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (column < 0 || column >= columns) {
             throw new IndexOutOfBoundsException("The column index is out of bounds");
         }
-        double[][] newData = new double[rows][columns - 1];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                if (j == column) {
-                    continue;
-                }
-                newData[i][j < column ? j : j - 1] = data[i][j];
-            }
-        }
-        return new ConcreteMatrix(newData);
+        return view(View.DROP_COLUMN, column, rows, columns - 1);
     }
 
     @Override
     public ConcreteMatrix transpose() {
-        double[][] newData = new double[columns][rows];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                newData[j][i] = data[i][j];
-            }
+        if (data == null && view == View.TRANSPOSE) {
+            return source;
         }
-        return new ConcreteMatrix(newData);
+        return view(View.TRANSPOSE, 0, columns, rows);
     }
 
     @Override
@@ -194,28 +531,22 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (columns != other.getRows()) {
             throw new IllegalArgumentException("The number of columns of the first matrix must be equal to the number of rows of the second matrix");
         }
-        double[][] newData = new double[rows][other.getColumns()];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < other.getColumns(); j++) {
-                double sum = 0;
-                for (int k = 0; k < columns; k++) {
-                    sum += data[i][k] * other.get(k, j);
-                }
-                newData[i][j] = sum;
-            }
+        int otherColumns = other.getColumns();
+        if (other instanceof SparseMatrix sparse) {
+            return new ConcreteMatrix(SparseMatrix.multiply(rowMajor(), rows, sparse), rows, otherColumns);
         }
-        return new ConcreteMatrix(newData);
+        // Other implementations are unboxed once up front rather than once per multiply-add
+        double[] otherData = DenseKernels.rowMajor(other);
+        double[] newData = new double[rows * otherColumns];
+        DenseKernels.multiply(rowMajor(), otherData, newData, rows, columns, otherColumns);
+        return new ConcreteMatrix(newData, rows, otherColumns);
     }
 
     @Override
     public ConcreteMatrix multiply(Double scalar) {
-        double[][] newData = new double[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                newData[i][j] = data[i][j] * scalar;
-            }
-        }
-        return new ConcreteMatrix(newData);
+        double[] newData = new double[rows * columns];
+        DenseKernels.scale(rowMajor(), scalar, newData, rows, columns);
+        return new ConcreteMatrix(newData, rows, columns);
     }
 
     @Override
@@ -223,24 +554,17 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (rows != other.getRows() || columns != other.getColumns()) {
             throw new IllegalArgumentException("The matrices must have the same dimensions");
         }
-        double[][] newData = new double[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                newData[i][j] = data[i][j] + other.get(i, j);
-            }
-        }
-        return new ConcreteMatrix(newData);
+        double[] otherData = DenseKernels.rowMajor(other);
+        double[] newData = new double[rows * columns];
+        DenseKernels.add(rowMajor(), otherData, newData, rows, columns);
+        return new ConcreteMatrix(newData, rows, columns);
     }
 
     @Override
     public ConcreteMatrix negate() {
-        double[][] newData = new double[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                newData[i][j] = -data[i][j];
-            }
-        }
-        return new ConcreteMatrix(newData);
+        double[] newData = new double[rows * columns];
+        DenseKernels.negate(rowMajor(), newData, rows, columns);
+        return new ConcreteMatrix(newData, rows, columns);
     }
 
     @Override
@@ -248,55 +572,166 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (newRows * newColumns != rows * columns) {
             throw new IllegalArgumentException("The number of entries must remain the same");
         }
-        double[][] newData = new double[newRows][newColumns];
-        double[] entries = new double[rows * columns];
-        for (int i = 0; i < rows; i++) {
-            System.arraycopy(data[i], 0, entries, i * columns, columns);
+        double[] entries = data;
+        if (entries != null) {
+            // Row-major storage is shape-agnostic, and this matrix is immutable, so the array can be shared.
+            return new ConcreteMatrix(entries, newRows, newColumns);
+        }
+        if (view == View.RESIZE) {
+            return source.resize(newRows, newColumns);
+        }
+        return view(View.RESIZE, 0, newRows, newColumns);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unlike the default implementation, the intermediate products are computed into a fixed
+     * set of scratch buffers, so only a constant number of arrays is allocated regardless of the exponent.
+     */
+    @Override
+    public ConcreteMatrix pow(int exponent) {
+        if (rows != columns) {
+            throw new IllegalArgumentException("The matrix must be square");
         }
-        for (int i = 0; i < newRows; i++) {
-            System.arraycopy(entries, i * newColumns, newData[i], 0, newColumns);
+        if (exponent < 0) {
+            throw new IllegalArgumentException("The exponent must be non-negative");
+        }
+        if (exponent == 0) {
+            return identityLike();
+        }
+        int size = rows;
+        double[] entries = rowMajor();
+        double[] result = null;
+        double[] resultScratch = null;
+        double[] power = entries; // not owned until the first squaring
+        double[] powerScratch = null;
+        while (true) {
+            if ((exponent & 1) != 0) {
+                if (result == null) {
+                    result = power.clone();
+                } else {
+                    if (resultScratch == null) {
+                        resultScratch = new double[size * size];
+                    } else {
+                        Arrays.fill(resultScratch, 0);
+                    }
+                    DenseKernels.multiply(result, power, resultScratch, size, size, size);
+                    double[] swap = result;
+                    result = resultScratch;
+                    resultScratch = swap;
+                }
+            }
+            exponent >>= 1;
+            if (exponent == 0) {
+                return new ConcreteMatrix(result, size, size);
+            }
+            if (powerScratch == null) {
+                powerScratch = new double[size * size];
+            } else {
+                Arrays.fill(powerScratch, 0);
+            }
+            DenseKernels.multiply(power, power, powerScratch, size, size, size);
+            double[] swap = power;
+            power = powerScratch;
+            // the original entries must never be reused as scratch space
+            powerScratch = swap == entries ? null : swap;
         }
-        return new ConcreteMatrix(newData);
     }
 
     /**
-     * Inverts a copy of this matrix.
+     * Inverts a copy of this matrix, using its {@linkplain #decompose() LU decomposition}.
      *
      * @return The inverse of the matrix
      * @throws IllegalArgumentException If the matrix is not square or if it is non-invertible
      */
     public ConcreteMatrix invert() {
-        if (rows != columns) {
-            throw new IllegalArgumentException("The matrix must be square");
+        return decompose().invert();
+    }
+
+    /**
+     * Returns the LU decomposition of this matrix.
+     * It is computed on the first call and cached, so it can be used for repeated solves.
+     *
+     * @return The LU decomposition
+     * @throws IllegalArgumentException If the matrix is not square
+     */
+    public LUDecomposition decompose() {
+        LUDecomposition result = decomposition;
+        if (result == null) {
+            result = new LUDecomposition(this);
+            decomposition = result;
         }
-        ConcreteMatrix augmented = new ConcreteMatrix(rows, columns * 2);
-        for (int i = 0; i < rows; i++) {
-            System.arraycopy(data[i], 0, augmented.data[i], 0, columns);
-            augmented.data[i][columns + i] = 1;
+        return result;
+    }
+
+    /**
+     * Returns false if the product of this matrix and the given one is certainly not equal to the expected matrix,
+     * without computing the product: by Freivalds' algorithm, both are multiplied by a random vector of signs,
+     * which takes time proportional to the number of entries of the three matrices. Rounding errors are
+     * accounted for, so this returns true whenever {@link #multiply(IMatrix)} returns a matrix equal to the
+     * expected one, and it may return true when it does not.
+     *
+     * @param other    The right operand of the product
+     * @param expected The expected product
+     * @return Whether the product may be equal to the expected matrix
+     * @throws IllegalArgumentException If the number of columns of this matrix is not the number of rows of the other
+     */
+    public boolean multiplyMayEqual(IMatrix<Double> other, IMatrix<Double> expected) {
+        if (columns != other.getRows()) {
+            throw new IllegalArgumentException("The number of columns of the first matrix must be equal to the number of rows of the second matrix");
         }
+        int otherColumns = other.getColumns();
+        if (expected.getRows() != rows || expected.getColumns() != otherColumns) {
+            return false;
+        }
+        double[] a = rowMajor();
+        double[] b = DenseKernels.rowMajor(other);
+        double[] c = DenseKernels.rowMajor(expected);
+        double[] signs = new double[otherColumns];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int j = 0; j < otherColumns; j++) {
+            signs[j] = random.nextBoolean() ? 1 : -1;
+        }
+        // y = b * signs, with the bound |b| * |signs| on its magnitude
+        double[] y = new double[columns];
+        double[] yBound = new double[columns];
+        for (int l = 0; l < columns; l++) {
+            for (int j = 0; j < otherColumns; j++) {
+                y[l] += b[l * otherColumns + j] * signs[j];
+                yBound[l] += Math.abs(b[l * otherColumns + j]);
+            }
+        }
+        // Both sides are sums of at most 2 * (columns + otherColumns) rounded operations per entry
+        double tolerance = 4.0 * (columns + otherColumns + 2) * Math.ulp(1.0);
         for (int i = 0; i < rows; i++) {
-            double pivot = augmented.data[i][i];
-            if (pivot == 0) {
-                throw new IllegalArgumentException("The matrix is singular");
+            double left = 0;
+            double leftBound = 0;
+            for (int l = 0; l < columns; l++) {
+                left += a[i * columns + l] * y[l];
+                leftBound += Math.abs(a[i * columns + l]) * yBound[l];
             }
-            for (int j = 0; j < columns * 2; j++) {
-                augmented.data[i][j] /= pivot;
+            double right = 0;
+            double rightBound = 0;
+            for (int j = 0; j < otherColumns; j++) {
+                right += c[i * otherColumns + j] * signs[j];
+                rightBound += Math.abs(c[i * otherColumns + j]);
             }
-            for (int j = 0; j < rows; j++) {
-                if (j == i) {
-                    continue;
-                }
-                double factor = augmented.data[j][i];
-                for (int k = 0; k < columns * 2; k++) {
-                    augmented.data[j][k] -= factor * augmented.data[i][k];
-                }
+            // NaNs never reject
+            if (Math.abs(left - right) > tolerance * (leftBound + rightBound) + Double.MIN_NORMAL) {
+                return false;
             }
         }
-        double[][] newData = new double[rows][columns];
-        for (int i = 0; i < rows; i++) {
-            System.arraycopy(augmented.data[i], columns, newData[i], 0, columns);
-        }
-        return new ConcreteMatrix(newData);
+        return true;
+    }
+
+    /**
+     * Returns the hash code of this matrix, if it was already computed.
+     *
+     * @return The hash code, or zero if it was not computed yet
+     */
+    int cachedHashCode() {
+        return hash;
     }
 
     @Override
@@ -304,27 +739,54 @@ public final class ConcreteMatrix implements IMatrix<Double> {
         if (this == obj) {
             return true;
         }
+        if (obj instanceof SparseMatrix sparse) {
+            return sparse.equals(this);
+        }
         if (!(obj instanceof ConcreteMatrix other)) {
             return false;
         }
         if (rows != other.rows || columns != other.columns) {
             return false;
         }
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < columns; j++) {
-                if (data[i][j] != other.data[i][j]) {
-                    return false;
-                }
+        // Equal matrices have equal hash codes, so cached ones reject in constant time
+        if (hash != 0 && other.hash != 0 && hash != other.hash) {
+            return false;
+        }
+        double[] entries = rowMajor();
+        double[] otherEntries = other.rowMajor();
+        // Probe entries spread over the matrix first, since differences tend to cluster
+        for (int p = 0; p < PROBES; p++) {
+            int i = (int) ((2L * p + 1) * entries.length / (2 * PROBES));
+            if (entries[i] != otherEntries[i]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] != otherEntries[i]) {
+                return false;
             }
-            // Can't use `java.util.Arrays.equals(data[i], other.data[i])`
-            // because it distinguishes zero with negative zero
         }
+        // Can't use `java.util.Arrays.equals(data, other.data)`
+        // because it distinguishes zero with negative zero
         return true;
     }
 
     @Override
     public int hashCode() {
-        return java.util.Arrays.deepHashCode(data);
+        int result = hash;
+        if (result == 0) {
+            // Agrees with SparseMatrix, and with equals on zero and negative zero
+            double[] entries = rowMajor();
+            result = SparseMatrix.hashSeed(rows, columns);
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] != 0) {
+                    result = SparseMatrix.hashEntry(result, i, entries[i]);
+                }
+            }
+            // The matrix is immutable, so a racy computation yields the same value
+            hash = result;
+        }
+        return result;
     }
 
     @Override
@@ -339,7 +801,7 @@ public final class ConcreteMatrix implements IMatrix<Double> {
                 if (j > 0) {
                     sb.append(", ");
                 }
-                sb.append(data[i][j]);
+                sb.append(at(i, j));
             }
         }
         sb.append("]");
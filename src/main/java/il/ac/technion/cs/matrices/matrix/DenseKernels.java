@@ -0,0 +1,241 @@
+package il.ac.technion.cs.matrices.matrix;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Numeric kernels over dense, row-major <code>double</code> arrays,
+ * as used by {@link ConcreteMatrix}.
+ * All kernels write into a caller-provided output array and do no bounds checking
+ * beyond what the JVM does for array accesses.
+ * Large operations are split into blocks of rows, see {@link MatrixParallelism},
+ * and the innermost loops are delegated to the active {@link ElementKernels} backend.
+ */
+final class DenseKernels {
+    /**
+     * Rows of the left operand processed per tile.
+     */
+    static final int ROW_BLOCK = 64;
+    /**
+     * Shared-dimension entries processed per tile. A tile of the right operand
+     * is <code>K_BLOCK * COLUMN_BLOCK</code> doubles, sized to stay resident in L2.
+     */
+    static final int K_BLOCK = 128;
+    /**
+     * Columns of the right operand processed per tile, sized so that a row
+     * of the output tile stays resident in L1.
+     */
+    static final int COLUMN_BLOCK = 256;
+
+    private static final ElementKernels ELEMENTS = ElementKernels.active();
+
+    private DenseKernels() {
+    }
+
+    /**
+     * A loop body over a range of rows.
+     */
+    @FunctionalInterface
+    interface RowRange {
+        /**
+         * Runs the loop body over the rows in <code>[fromRow, toRow)</code>.
+         *
+         * @param fromRow The first row, inclusive
+         * @param toRow   The last row, exclusive
+         */
+        void apply(int fromRow, int toRow);
+    }
+
+    /**
+     * Runs the given body over all the rows in <code>[0, rows)</code>, in parallel blocks of rows
+     * if the total work is above {@link MatrixParallelism#getThreshold()}, and sequentially otherwise.
+     * The body must only write to the rows it is given.
+     *
+     * @param rows       The number of rows
+     * @param workPerRow The estimated number of multiply-adds per row
+     * @param body       The loop body
+     */
+    static void forEachRowBlock(int rows, long workPerRow, RowRange body) {
+        long threshold = MatrixParallelism.getThreshold();
+        ForkJoinPool pool = MatrixParallelism.getPool();
+        long work = rows * Math.max(workPerRow, 1);
+        if (rows < 2 || work <= threshold || pool.getParallelism() < 2) {
+            body.apply(0, rows);
+            return;
+        }
+        int grain = (int) Math.max(1, Math.min(rows, threshold / Math.max(workPerRow, 1)));
+        RowBlockTask task = new RowBlockTask(body, 0, rows, grain);
+        if (ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool) {
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    private static final class RowBlockTask extends RecursiveAction {
+        private final RowRange body;
+        private final int fromRow;
+        private final int toRow;
+        private final int grain;
+
+        RowBlockTask(RowRange body, int fromRow, int toRow, int grain) {
+            this.body = body;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= grain) {
+                body.apply(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new RowBlockTask(body, fromRow, middle, grain),
+                    new RowBlockTask(body, middle, toRow, grain));
+        }
+    }
+
+    /**
+     * Computes <code>c += a * b</code>, where <code>a</code> is <code>n x k</code>,
+     * <code>b</code> is <code>k x m</code> and <code>c</code> is <code>n x m</code>,
+     * all in row-major order.
+     * <p>
+     * The loops are tiled and ordered i-k-j, so that the innermost loop streams over
+     * contiguous rows of both <code>b</code> and <code>c</code> instead of walking a column of
+     * <code>b</code>. For every output entry the products are still accumulated in
+     * increasing <code>k</code> order, so with the scalar {@link ElementKernels} backend
+     * the result is bit-identical to the naive loop.
+     *
+     * @param a The left operand
+     * @param b The right operand
+     * @param c The accumulator
+     * @param n The number of rows of <code>a</code> and <code>c</code>
+     * @param k The number of columns of <code>a</code> and rows of <code>b</code>
+     * @param m The number of columns of <code>b</code> and <code>c</code>
+     */
+    static void multiplyAdd(double[] a, double[] b, double[] c, int n, int k, int m) {
+        multiplyAdd(a, b, c, k, m, 0, n);
+    }
+
+    /**
+     * Same as {@link #multiplyAdd(double[], double[], double[], int, int, int)},
+     * restricted to the output rows in <code>[fromRow, toRow)</code>.
+     */
+    static void multiplyAdd(double[] a, double[] b, double[] c, int k, int m, int fromRow, int toRow) {
+        for (int i0 = fromRow; i0 < toRow; i0 += ROW_BLOCK) {
+            int i1 = Math.min(i0 + ROW_BLOCK, toRow);
+            for (int k0 = 0; k0 < k; k0 += K_BLOCK) {
+                int k1 = Math.min(k0 + K_BLOCK, k);
+                for (int j0 = 0; j0 < m; j0 += COLUMN_BLOCK) {
+                    int j1 = Math.min(j0 + COLUMN_BLOCK, m);
+                    for (int i = i0; i < i1; i++) {
+                        int aRow = i * k;
+                        int cRow = i * m;
+                        for (int p = k0; p < k1; p++) {
+                            ELEMENTS.multiplyAdd(a[aRow + p], b, p * m + j0, c, cRow + j0, j1 - j0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes <code>y[yFrom + i] += factor * x[xFrom + i]</code> for every <code>i</code> in <code>[0, length)</code>.
+     */
+    static void multiplyAdd(double factor, double[] x, int xFrom, double[] y, int yFrom, int length) {
+        ELEMENTS.multiplyAdd(factor, x, xFrom, y, yFrom, length);
+    }
+
+    /**
+     * Computes <code>c += a * b</code> (so <code>c = a * b</code> if <code>c</code> is zeroed),
+     * in parallel row blocks if it is large enough.
+     * See {@link #multiplyAdd(double[], double[], double[], int, int, int)} for the arguments.
+     */
+    static void multiply(double[] a, double[] b, double[] c, int n, int k, int m) {
+        forEachRowBlock(n, (long) k * m, (from, to) -> multiplyAdd(a, b, c, k, m, from, to));
+    }
+
+    /**
+     * Computes <code>c = a + b</code> element-wise over <code>rows</code> rows of <code>columns</code> entries.
+     */
+    static void add(double[] a, double[] b, double[] c, int rows, int columns) {
+        forEachRowBlock(rows, columns, (from, to) -> ELEMENTS.add(a, b, c, from * columns, to * columns));
+    }
+
+    /**
+     * Computes <code>c = a - b</code> element-wise over <code>rows</code> rows of <code>columns</code> entries.
+     */
+    static void subtract(double[] a, double[] b, double[] c, int rows, int columns) {
+        forEachRowBlock(rows, columns, (from, to) -> ELEMENTS.subtract(a, b, c, from * columns, to * columns));
+    }
+
+    /**
+     * Computes <code>c = -a</code> element-wise over <code>rows</code> rows of <code>columns</code> entries.
+     */
+    static void negate(double[] a, double[] c, int rows, int columns) {
+        forEachRowBlock(rows, columns, (from, to) -> ELEMENTS.negate(a, c, from * columns, to * columns));
+    }
+
+    /**
+     * Computes <code>c = a * scalar</code> element-wise over <code>rows</code> rows of <code>columns</code> entries.
+     */
+    static void scale(double[] a, double scalar, double[] c, int rows, int columns) {
+        forEachRowBlock(rows, columns, (from, to) -> ELEMENTS.scale(a, scalar, c, from * columns, to * columns));
+    }
+
+    /**
+     * Writes the transpose of the <code>rows x columns</code> matrix <code>a</code> into <code>c</code>.
+     * Work is split by rows of the output, so each task writes a contiguous range.
+     */
+    static void transpose(double[] a, double[] c, int rows, int columns) {
+        forEachRowBlock(columns, rows, (from, to) -> {
+            for (int j = from; j < to; j++) {
+                int cRow = j * rows;
+                for (int i = 0; i < rows; i++) {
+                    c[cRow + i] = a[i * columns + j];
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the entries of the given matrix in row-major order.
+     * For a {@link ConcreteMatrix} this is its backing array, which must not be modified;
+     * for any other matrix it is a new array.
+     *
+     * @param matrix The matrix
+     * @return The entries of the matrix, in row-major order
+     */
+    static double[] rowMajor(IMatrix<Double> matrix) {
+        if (matrix instanceof ConcreteMatrix concrete) {
+            return concrete.rowMajor();
+        }
+        if (matrix instanceof SparseMatrix sparse) {
+            return sparse.toRowMajor();
+        }
+        return toRowMajor(matrix);
+    }
+
+    /**
+     * Copies the entries of the given matrix into a new row-major array.
+     * This unboxes every entry exactly once.
+     *
+     * @param matrix The matrix
+     * @return The entries of the matrix, in row-major order
+     */
+    static double[] toRowMajor(IMatrix<Double> matrix) {
+        int rows = matrix.getRows();
+        int columns = matrix.getColumns();
+        double[] result = new double[rows * columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                result[i * columns + j] = matrix.get(i, j);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,27 @@
+package il.ac.technion.cs.matrices.matrix;
+
+/**
+ * Performs the backend selection described in {@link ElementKernels}, once, when this class is loaded.
+ */
+final class ElementKernelSelection {
+    /**
+     * The vector backend, or null if it is not available.
+     */
+    static final ElementKernels VECTOR = loadVector();
+    static final ElementKernels ACTIVE =
+            VECTOR != null && !"false".equals(System.getProperty("il.ac.technion.cs.matrices.simd"))
+                    ? VECTOR : ScalarElementKernels.INSTANCE;
+
+    private ElementKernelSelection() {
+    }
+
+    private static ElementKernels loadVector() {
+        try {
+            // Loaded reflectively, so that a missing jdk.incubator.vector module only fails here
+            return (ElementKernels) Class.forName("il.ac.technion.cs.matrices.matrix.VectorElementKernels")
+                    .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package il.ac.technion.cs.matrices.matrix;
+
+import java.util.Optional;
+
+/**
+ * The innermost loops of the {@link ConcreteMatrix} kernels, over ranges of <code>double</code> arrays.
+ * There are two implementations: a portable scalar one, and one using the
+ * incubating Vector API (<code>jdk.incubator.vector</code>), which is only available if the
+ * JVM was started with <code>--add-modules jdk.incubator.vector</code>.
+ * <p>
+ * The backend used by {@link ConcreteMatrix} is selected once, when the class is loaded:
+ * the vector backend if it is available, unless the system property
+ * <code>il.ac.technion.cs.matrices.simd</code> is set to <code>false</code>, and the scalar backend otherwise.
+ * <p>
+ * Both backends produce bit-identical results for {@link #add}, {@link #subtract}, {@link #negate} and {@link #scale}.
+ * The vector backend computes {@link #multiplyAdd} with fused multiply-adds,
+ * which round once instead of twice, so products may differ in the last bits.
+ */
+public interface ElementKernels {
+    /**
+     * Computes <code>c[i] = a[i] + b[i]</code> for every <code>i</code> in <code>[from, to)</code>.
+     */
+    void add(double[] a, double[] b, double[] c, int from, int to);
+
+    /**
+     * Computes <code>c[i] = a[i] - b[i]</code> for every <code>i</code> in <code>[from, to)</code>.
+     */
+    void subtract(double[] a, double[] b, double[] c, int from, int to);
+
+    /**
+     * Computes <code>c[i] = -a[i]</code> for every <code>i</code> in <code>[from, to)</code>.
+     */
+    void negate(double[] a, double[] c, int from, int to);
+
+    /**
+     * Computes <code>c[i] = a[i] * scalar</code> for every <code>i</code> in <code>[from, to)</code>.
+     */
+    void scale(double[] a, double scalar, double[] c, int from, int to);
+
+    /**
+     * Computes <code>y[yFrom + i] += factor * x[xFrom + i]</code> for every <code>i</code> in <code>[0, length)</code>.
+     */
+    void multiplyAdd(double factor, double[] x, int xFrom, double[] y, int yFrom, int length);
+
+    /**
+     * @return The portable scalar backend
+     */
+    static ElementKernels scalar() {
+        return ScalarElementKernels.INSTANCE;
+    }
+
+    /**
+     * @return The Vector API backend, or an empty optional if the Vector API is not available in this JVM
+     */
+    static Optional<ElementKernels> vector() {
+        return Optional.ofNullable(ElementKernelSelection.VECTOR);
+    }
+
+    /**
+     * @return The backend used by {@link ConcreteMatrix}
+     */
+    static ElementKernels active() {
+        return ElementKernelSelection.ACTIVE;
+    }
+}
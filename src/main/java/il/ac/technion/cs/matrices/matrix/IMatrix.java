@@ -1,5 +1,7 @@
 package il.ac.technion.cs.matrices.matrix;
 
+import java.util.List;
+
 /**
  * An interface for a matrix of elements of type T.
  * The matrix is immutable, and all operations return new matrices.
@@ -41,6 +43,29 @@ public interface IMatrix<T> {
      */
     IMatrix<T> exceptAt(int row, int col, T value);
 
+    /**
+     * Returns a copy of this matrix which is identical for all entries except for
+     * <code>(rows[k], columns[k])</code>, which is set to <code>values.get(k)</code> for every <code>k</code>.
+     * If an entry is given more than once, the last value is used.
+     *
+     * @param rows    The row indices
+     * @param columns The column indices
+     * @param values  The new values of the entries
+     * @return The new matrix
+     * @throws IllegalArgumentException  If the arguments do not have the same length
+     * @throws IndexOutOfBoundsException If a row or column index is out of bounds
+     */
+    default IMatrix<T> exceptAt(int[] rows, int[] columns, List<T> values) {
+        if (rows.length != columns.length || rows.length != values.size()) {
+            throw new IllegalArgumentException("The index and value arrays must have the same length");
+        }
+        IMatrix<T> result = this;
+        for (int k = 0; k < rows.length; k++) {
+            result = result.exceptAt(rows[k], columns[k], values.get(k));
+        }
+        return result;
+    }
+
     /**
      * Returns a copy of this matrix with the given row removed.
      *
@@ -128,6 +153,10 @@ public interface IMatrix<T> {
     /**
      * Returns a copy of this matrix, raised to the given exponent.
      * If the exponent is zero, the identity matrix is returned.
+     * <p>
+     * This uses exponentiation by squaring, so it does <code>O(log exponent)</code> multiplications.
+     * Every intermediate power is used as both operands of the next squaring, so for
+     * symbolic entries the resulting terms share their subterms instead of repeating them.
      *
      * @param exponent The exponent
      * @return The new matrix
@@ -143,11 +172,18 @@ public interface IMatrix<T> {
         if (exponent == 0) {
             return identityLike();
         }
-        IMatrix<T> result = this;
-        for (int i = 1; i < exponent; i++) {
-            result = result.multiply(this);
+        IMatrix<T> result = null;
+        IMatrix<T> power = this;
+        while (true) {
+            if ((exponent & 1) != 0) {
+                result = result == null ? power : result.multiply(power);
+            }
+            exponent >>= 1;
+            if (exponent == 0) {
+                return result;
+            }
+            power = power.multiply(power);
         }
-        return result;
     }
 
     /**
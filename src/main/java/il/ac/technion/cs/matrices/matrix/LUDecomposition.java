@@ -0,0 +1,213 @@
+package il.ac.technion.cs.matrices.matrix;
+
+/**
+ * The LU decomposition with partial pivoting of a square matrix <code>A</code>,
+ * that is <code>PA = LU</code> where <code>P</code> is a permutation matrix,
+ * <code>L</code> is unit lower triangular and <code>U</code> is upper triangular.
+ * The factorization is computed once, on construction, and reused by every
+ * {@link #solve}, {@link #invert} and {@link #determinant} call.
+ * <p>
+ * The pivot of every column is its entry of largest magnitude on or below the diagonal,
+ * which bounds the multipliers of <code>L</code> by one, and so the growth of the entries.
+ * <p>
+ * The factorization is blocked: columns are factored in panels of {@value #BLOCK},
+ * and the rest of the matrix is updated once per panel, in parallel row blocks
+ * (see {@link MatrixParallelism}).
+ * Objects of this class are immutable.
+ */
+public final class LUDecomposition {
+    /**
+     * The number of columns factored per panel.
+     */
+    static final int BLOCK = 64;
+
+    private final int size;
+    /**
+     * <code>L</code> below the diagonal and <code>U</code> on and above it, in row-major order.
+     */
+    private final double[] lu;
+    /**
+     * Row <code>i</code> of <code>PA</code> is row <code>pivots[i]</code> of <code>A</code>.
+     */
+    private final int[] pivots;
+    private final boolean singular;
+    private final int pivotSign;
+
+    /**
+     * Computes the LU decomposition of the given matrix.
+     *
+     * @param matrix The matrix
+     * @throws IllegalArgumentException If the matrix is not square
+     */
+    public LUDecomposition(IMatrix<Double> matrix) {
+        if (matrix.getRows() != matrix.getColumns()) {
+            throw new IllegalArgumentException("The matrix must be square");
+        }
+        int n = matrix.getRows();
+        double[] lu = matrix instanceof ConcreteMatrix concrete ? concrete.rowMajor().clone() : DenseKernels.rowMajor(matrix);
+        int[] pivots = new int[n];
+        for (int i = 0; i < n; i++) {
+            pivots[i] = i;
+        }
+        boolean singular = false;
+        int pivotSign = 1;
+        for (int k0 = 0; k0 < n; k0 += BLOCK) {
+            int k1 = Math.min(k0 + BLOCK, n);
+            // Factor the panel of columns [k0, k1), swapping whole rows
+            for (int k = k0; k < k1; k++) {
+                int pivotRow = k;
+                for (int i = k + 1; i < n; i++) {
+                    if (Math.abs(lu[i * n + k]) > Math.abs(lu[pivotRow * n + k])) {
+                        pivotRow = i;
+                    }
+                }
+                double pivot = lu[pivotRow * n + k];
+                if (pivot == 0) {
+                    singular = true;
+                    continue;
+                }
+                if (pivotRow != k) {
+                    for (int j = 0; j < n; j++) {
+                        double temp = lu[k * n + j];
+                        lu[k * n + j] = lu[pivotRow * n + j];
+                        lu[pivotRow * n + j] = temp;
+                    }
+                    int temp = pivots[k];
+                    pivots[k] = pivots[pivotRow];
+                    pivots[pivotRow] = temp;
+                    pivotSign = -pivotSign;
+                }
+                for (int i = k + 1; i < n; i++) {
+                    double factor = lu[i * n + k] / pivot;
+                    lu[i * n + k] = factor;
+                    for (int j = k + 1; j < k1; j++) {
+                        lu[i * n + j] -= factor * lu[k * n + j];
+                    }
+                }
+            }
+            if (k1 == n) {
+                break;
+            }
+            int width = n - k1;
+            // The panel's rows of U, right of the panel
+            for (int k = k0; k < k1; k++) {
+                for (int i = k + 1; i < k1; i++) {
+                    DenseKernels.multiplyAdd(-lu[i * n + k], lu, k * n + k1, lu, i * n + k1, width);
+                }
+            }
+            // The trailing submatrix, whose rows are independent of each other
+            int from0 = k0;
+            DenseKernels.forEachRowBlock(width, (long) (k1 - k0) * width, (from, to) -> {
+                for (int i = k1 + from; i < k1 + to; i++) {
+                    for (int p = from0; p < k1; p++) {
+                        DenseKernels.multiplyAdd(-lu[i * n + p], lu, p * n + k1, lu, i * n + k1, width);
+                    }
+                }
+            });
+        }
+        this.size = n;
+        this.lu = lu;
+        this.pivots = pivots;
+        this.singular = singular;
+        this.pivotSign = pivotSign;
+    }
+
+    /**
+     * Returns the number of rows (and columns) of the decomposed matrix.
+     *
+     * @return The size of the matrix
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns whether the decomposed matrix is singular, that is whether some pivot is exactly zero.
+     *
+     * @return Whether the matrix is singular
+     */
+    public boolean isSingular() {
+        return singular;
+    }
+
+    /**
+     * Returns the determinant of the decomposed matrix.
+     *
+     * @return The determinant
+     */
+    public double determinant() {
+        if (singular) {
+            return 0;
+        }
+        double determinant = pivotSign;
+        for (int i = 0; i < size; i++) {
+            determinant *= lu[i * size + i];
+        }
+        return determinant;
+    }
+
+    /**
+     * Solves <code>AX = B</code> for <code>X</code>, where <code>A</code> is the decomposed matrix.
+     *
+     * @param b The right-hand side
+     * @return The solution
+     * @throws IllegalArgumentException If the number of rows of <code>b</code> is not the size of the matrix,
+     *                                  or if the matrix is singular
+     */
+    public ConcreteMatrix solve(IMatrix<Double> b) {
+        if (b.getRows() != size) {
+            throw new IllegalArgumentException("The number of rows must be equal to the size of the matrix");
+        }
+        int m = b.getColumns();
+        double[] entries = DenseKernels.rowMajor(b);
+        double[] x = new double[size * m];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(entries, pivots[i] * m, x, i * m, m);
+        }
+        return substitute(x, m);
+    }
+
+    /**
+     * Returns the inverse of the decomposed matrix.
+     *
+     * @return The inverse
+     * @throws IllegalArgumentException If the matrix is singular
+     */
+    public ConcreteMatrix invert() {
+        double[] x = new double[size * size];
+        for (int i = 0; i < size; i++) {
+            x[i * size + pivots[i]] = 1;
+        }
+        return substitute(x, size);
+    }
+
+    /**
+     * Overwrites the permuted right-hand side <code>x</code>, which has <code>m</code> columns,
+     * with the solution, by forward and back substitution.
+     */
+    private ConcreteMatrix substitute(double[] x, int m) {
+        if (singular) {
+            throw new IllegalArgumentException("The matrix is singular");
+        }
+        int n = size;
+        // Columns of the right-hand side are independent of each other
+        DenseKernels.forEachRowBlock(m, (long) n * n, (from, to) -> {
+            int width = to - from;
+            for (int i = 1; i < n; i++) {
+                for (int p = 0; p < i; p++) {
+                    DenseKernels.multiplyAdd(-lu[i * n + p], x, p * m + from, x, i * m + from, width);
+                }
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                for (int p = i + 1; p < n; p++) {
+                    DenseKernels.multiplyAdd(-lu[i * n + p], x, p * m + from, x, i * m + from, width);
+                }
+                double diagonal = lu[i * n + i];
+                for (int j = i * m + from; j < i * m + to; j++) {
+                    x[j] /= diagonal;
+                }
+            }
+        });
+        return ConcreteMatrix.wrap(n, m, x);
+    }
+}
@@ -0,0 +1,201 @@
+package il.ac.technion.cs.matrices.matrix;
+
+/**
+ * A mutable accumulator of <code>double</code> entries, which is frozen into a {@link ConcreteMatrix}.
+ * Every operation updates the builder's single buffer in place, so a chain of operations
+ * such as <code>a.multiply(b).add(c).add(d)</code> can be written as
+ * <pre>{@code
+ * new MatrixBuilder(n, m).multiplyAdd(a, b).add(c).add(d).build()
+ * }</pre>
+ * without allocating an intermediate matrix for every step.
+ * <p>
+ * {@link #build()} hands the buffer over to the matrix without copying it,
+ * after which the builder can no longer be used.
+ * Objects of this class are not thread-safe, although large operations run in parallel internally
+ * (see {@link MatrixParallelism}).
+ */
+public final class MatrixBuilder {
+    private final int rows;
+    private final int columns;
+    /**
+     * The entries in row-major order, or null once the builder was built.
+     */
+    private double[] data;
+
+    /**
+     * Constructs a new builder with the given dimensions, with all entries initialized to zero.
+     *
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @throws IllegalArgumentException If the number of rows or columns is non-positive
+     */
+    public MatrixBuilder(int rows, int columns) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("The number of rows must be positive");
+        }
+        if (columns <= 0) {
+            throw new IllegalArgumentException("The number of columns must be positive");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.data = new double[rows * columns];
+    }
+
+    /**
+     * Constructs a new builder initialized to the entries of the given matrix.
+     *
+     * @param matrix The initial entries
+     * @return The new builder
+     */
+    public static MatrixBuilder of(IMatrix<Double> matrix) {
+        MatrixBuilder builder = new MatrixBuilder(matrix.getRows(), matrix.getColumns());
+        System.arraycopy(DenseKernels.rowMajor(matrix), 0, builder.data, 0, builder.data.length);
+        return builder;
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return The number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return The number of columns
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the entry at the given position.
+     *
+     * @param row    The row index
+     * @param column The column index
+     * @return The entry
+     * @throws IndexOutOfBoundsException If the row or column index is out of bounds
+     * @throws IllegalStateException     If the builder was already built
+     */
+    public double get(int row, int column) {
+        checkIndex(row, column);
+        return entries()[row * columns + column];
+    }
+
+    /**
+     * Sets the entry at the given position.
+     *
+     * @param row    The row index
+     * @param column The column index
+     * @param value  The new value
+     * @return This builder
+     * @throws IndexOutOfBoundsException If the row or column index is out of bounds
+     * @throws IllegalStateException     If the builder was already built
+     */
+    public MatrixBuilder set(int row, int column, double value) {
+        checkIndex(row, column);
+        entries()[row * columns + column] = value;
+        return this;
+    }
+
+    /**
+     * Adds the given matrix into this builder.
+     *
+     * @param other The matrix to add
+     * @return This builder
+     * @throws IllegalArgumentException If the dimensions do not match
+     * @throws IllegalStateException    If the builder was already built
+     */
+    public MatrixBuilder add(IMatrix<Double> other) {
+        checkSameDimensions(other);
+        double[] entries = entries();
+        DenseKernels.add(entries, DenseKernels.rowMajor(other), entries, rows, columns);
+        return this;
+    }
+
+    /**
+     * Subtracts the given matrix from this builder.
+     *
+     * @param other The matrix to subtract
+     * @return This builder
+     * @throws IllegalArgumentException If the dimensions do not match
+     * @throws IllegalStateException    If the builder was already built
+     */
+    public MatrixBuilder subtract(IMatrix<Double> other) {
+        checkSameDimensions(other);
+        double[] entries = entries();
+        DenseKernels.subtract(entries, DenseKernels.rowMajor(other), entries, rows, columns);
+        return this;
+    }
+
+    /**
+     * Multiplies every entry of this builder by the given scalar.
+     *
+     * @param scalar The scalar
+     * @return This builder
+     * @throws IllegalStateException If the builder was already built
+     */
+    public MatrixBuilder scale(double scalar) {
+        double[] entries = entries();
+        DenseKernels.scale(entries, scalar, entries, rows, columns);
+        return this;
+    }
+
+    /**
+     * Adds the product <code>a * b</code> into this builder.
+     *
+     * @param a The left operand
+     * @param b The right operand
+     * @return This builder
+     * @throws IllegalArgumentException If the dimensions do not match
+     * @throws IllegalStateException    If the builder was already built
+     */
+    public MatrixBuilder multiplyAdd(IMatrix<Double> a, IMatrix<Double> b) {
+        if (a.getColumns() != b.getRows()) {
+            throw new IllegalArgumentException("The number of columns of the first matrix must be equal to the number of rows of the second matrix");
+        }
+        if (a.getRows() != rows || b.getColumns() != columns) {
+            throw new IllegalArgumentException("The dimensions of the product must be equal to the dimensions of the builder");
+        }
+        DenseKernels.multiply(DenseKernels.rowMajor(a), DenseKernels.rowMajor(b), entries(), rows, a.getColumns(), columns);
+        return this;
+    }
+
+    /**
+     * Freezes the entries of this builder into a matrix, without copying them.
+     * The builder can not be used afterwards.
+     *
+     * @return The new matrix
+     * @throws IllegalStateException If the builder was already built
+     */
+    public ConcreteMatrix build() {
+        double[] entries = entries();
+        data = null;
+        return ConcreteMatrix.wrap(rows, columns, entries);
+    }
+
+    private double[] entries() {
+        if (data == null) {
+            throw new IllegalStateException("The builder was already built");
+        }
+        return data;
+    }
+
+    private void checkIndex(int row, int column) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("The row index is out of bounds");
+        }
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("The column index is out of bounds");
+        }
+    }
+
+    private void checkSameDimensions(IMatrix<Double> other) {
+        if (rows != other.getRows() || columns != other.getColumns()) {
+            throw new IllegalArgumentException("The matrices must have the same dimensions");
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package il.ac.technion.cs.matrices.matrix;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Global configuration for the parallel kernels of {@link ConcreteMatrix}.
+ * Large operations are split into blocks of rows which are run on a {@link ForkJoinPool};
+ * operations whose estimated work is below a threshold run sequentially on the calling thread,
+ * so that small matrices do not pay the scheduling overhead.
+ */
+public final class MatrixParallelism {
+    /**
+     * The default threshold, in scalar multiply-adds, below which operations run sequentially.
+     */
+    public static final long DEFAULT_THRESHOLD = 1 << 16;
+
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+    private static volatile long threshold = DEFAULT_THRESHOLD;
+
+    private MatrixParallelism() {
+    }
+
+    /**
+     * @return The pool used to run parallel matrix operations
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets the pool used to run parallel matrix operations.
+     * A pool with parallelism 1 effectively disables parallelism.
+     *
+     * @param pool The pool
+     */
+    public static void setPool(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("The pool must not be null");
+        }
+        MatrixParallelism.pool = pool;
+    }
+
+    /**
+     * @return The amount of work, in scalar multiply-adds, below which operations run sequentially
+     */
+    public static long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the amount of work, in scalar multiply-adds, below which operations run sequentially.
+     * This is also the approximate amount of work done by each parallel task.
+     * Use {@link Long#MAX_VALUE} to disable parallelism.
+     *
+     * @param threshold The threshold
+     * @throws IllegalArgumentException If the threshold is not positive
+     */
+    public static void setThreshold(long threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("The threshold must be positive");
+        }
+        MatrixParallelism.threshold = threshold;
+    }
+}
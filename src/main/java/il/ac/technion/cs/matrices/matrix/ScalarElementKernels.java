@@ -0,0 +1,46 @@
+package il.ac.technion.cs.matrices.matrix;
+
+/**
+ * The portable implementation of {@link ElementKernels}.
+ */
+final class ScalarElementKernels implements ElementKernels {
+    static final ScalarElementKernels INSTANCE = new ScalarElementKernels();
+
+    private ScalarElementKernels() {
+    }
+
+    @Override
+    public void add(double[] a, double[] b, double[] c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            c[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] a, double[] b, double[] c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            c[i] = a[i] - b[i];
+        }
+    }
+
+    @Override
+    public void negate(double[] a, double[] c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            c[i] = -a[i];
+        }
+    }
+
+    @Override
+    public void scale(double[] a, double scalar, double[] c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            c[i] = a[i] * scalar;
+        }
+    }
+
+    @Override
+    public void multiplyAdd(double factor, double[] x, int xFrom, double[] y, int yFrom, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yFrom + i] += factor * x[xFrom + i];
+        }
+    }
+}
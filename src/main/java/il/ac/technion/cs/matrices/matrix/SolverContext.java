@@ -0,0 +1,176 @@
+package il.ac.technion.cs.matrices.matrix;
+
+import io.github.cvc5.CVC5ApiException;
+import io.github.cvc5.Solver;
+import io.github.cvc5.Term;
+import io.github.cvc5.TermManager;
+
+import java.math.BigInteger;
+
+/**
+ * A cvc5 solver and the term manager that creates its terms. Every {@link AbstractMatrix} is bound
+ * to a context: its entries are terms of the context, and its constraints are meant for its solver.
+ * Matrices of different contexts must not be mixed.
+ * <p>
+ * Every thread has a default context, {@link #current()}, which is used by the constructors and factory
+ * methods of {@link AbstractMatrix} that do not take a context. A synthesis job may create its own context
+ * instead, and close it when it is done, so that jobs do not share assertions.
+ * <p>
+ * Contexts are not independent: cvc5 registers every term, solver and term manager it creates in a static list,
+ * without synchronization. So cvc5 must not be used by two threads at once, even through different contexts,
+ * and code that may run on several threads holds {@link #LOCK} while it creates or uses a context.
+ * Objects of this class are not thread-safe either.
+ */
+public final class SolverContext implements AutoCloseable {
+    /**
+     * The lock that serializes all uses of cvc5 in the process.
+     */
+    public static final Object LOCK = new Object();
+
+    private static final ThreadLocal<SolverContext> CURRENT = new ThreadLocal<>();
+
+    private final TermManager termManager;
+    private final Solver solver;
+    private final Term zero;
+    private final Term one;
+    private boolean closed;
+
+    /**
+     * Creates a new context with a new solver, which is incremental and produces models.
+     */
+    public SolverContext() {
+        this(0);
+    }
+
+    /**
+     * Creates a new context with a new solver, which is incremental, produces models, and gives up on every
+     * query that takes longer than the given time. cvc5 only accepts the limit before its first query,
+     * so it cannot be changed afterwards.
+     *
+     * @param timeLimitMillis The time limit of every query in milliseconds, or 0 for none
+     * @throws IllegalArgumentException If the time limit is negative
+     */
+    public SolverContext(long timeLimitMillis) {
+        if (timeLimitMillis < 0) {
+            throw new IllegalArgumentException("The time limit must not be negative");
+        }
+        this.termManager = new TermManager();
+        this.solver = new Solver(termManager);
+        solver.setOption("incremental", "true");
+        solver.setOption("produce-models", "true");
+        if (timeLimitMillis > 0) {
+            solver.setOption("tlimit-per", Long.toString(timeLimitMillis));
+        }
+        this.zero = termManager.mkReal(0);
+        this.one = termManager.mkReal(1);
+    }
+
+    /**
+     * Returns the default context of the current thread, creating it if there is none or if it was closed.
+     *
+     * @return The context
+     */
+    public static SolverContext current() {
+        SolverContext context = CURRENT.get();
+        if (context == null || context.closed) {
+            context = new SolverContext();
+            CURRENT.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * Returns the term manager of this context.
+     *
+     * @return The term manager
+     * @throws IllegalStateException If this context is closed
+     */
+    public TermManager getTermManager() {
+        checkOpen();
+        return termManager;
+    }
+
+    /**
+     * Returns the solver of this context.
+     *
+     * @return The solver
+     * @throws IllegalStateException If this context is closed
+     */
+    public Solver getSolver() {
+        checkOpen();
+        return solver;
+    }
+
+    /**
+     * @return The constant zero
+     */
+    Term zero() {
+        checkOpen();
+        return zero;
+    }
+
+    /**
+     * @return The constant one
+     */
+    Term one() {
+        checkOpen();
+        return one;
+    }
+
+    /**
+     * Returns the constant of the given rational.
+     *
+     * @param numerator   The numerator
+     * @param denominator The denominator, which must be positive
+     * @return The constant
+     */
+    Term real(BigInteger numerator, BigInteger denominator) {
+        checkOpen();
+        if (denominator.equals(BigInteger.ONE) && numerator.bitLength() < Long.SIZE) {
+            return termManager.mkReal(numerator.longValue());
+        }
+        try {
+            return termManager.mkReal(numerator + "/" + denominator);
+        } catch (CVC5ApiException e) {
+            throw new IllegalArgumentException("The rational " + numerator + "/" + denominator + " cannot be converted", e);
+        }
+    }
+
+    /**
+     * Returns whether this context was closed.
+     *
+     * @return Whether this context was closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Releases the solver of this context. Its matrices and terms must not be used afterwards.
+     * If this is the default context of the current thread, the next call to {@link #current()} creates a new one.
+     * Closing a closed context does nothing.
+     * <p>
+     * The term manager and the terms are not released, since cvc5 offers no way to release the terms of one
+     * term manager, and a term released after its term manager is a use after free. They stay registered
+     * in the static list of cvc5 until {@link io.github.cvc5.Context#deletePointers()}, which releases
+     * everything cvc5 created, terms before their term managers, and so must only be called when
+     * no context is in use. Until then, every context leaks the memory of its terms.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        solver.deletePointer();
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The solver context is closed");
+        }
+    }
+}
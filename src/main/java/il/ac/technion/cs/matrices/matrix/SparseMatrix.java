@@ -0,0 +1,735 @@
+package il.ac.technion.cs.matrices.matrix;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * This class is an implementation of a matrix
+ * with real-valued entries that only stores its non-zero entries.
+ * It supports vectors represented as n x 1 or 1 x n matrices.
+ * The matrix is 0-indexed and its entries are
+ * stored in compressed sparse row (CSR) form: the non-zero entries of row <code>i</code>
+ * are at positions <code>rowPointers[i]</code> (inclusive) to <code>rowPointers[i + 1]</code> (exclusive)
+ * of <code>values</code>, and their column indices, in increasing order, at the same positions
+ * of <code>columnIndices</code>.
+ * <p>
+ * A sparse matrix is equal to a {@link ConcreteMatrix} with the same entries, and has the same hash code.
+ * Operations with a sparse result return a <code>SparseMatrix</code>, and operations whose
+ * result is generally dense (such as adding a dense matrix) return a {@link ConcreteMatrix}.
+ * Entries that are not stored are exact zeros, so unlike {@link ConcreteMatrix},
+ * multiplying them by an infinite or NaN entry yields zero.
+ * Objects of this class are expected to be immutable.
+ */
+public final class SparseMatrix implements IMatrix<Double> {
+    private static final int[] NO_INDICES = new int[0];
+    private static final double[] NO_VALUES = new double[0];
+
+    private final int rows;
+    private final int columns;
+    private final int[] rowPointers;
+    private final int[] columnIndices;
+    private final double[] values;
+    /**
+     * The hash code of this matrix, or zero if it has not been computed yet.
+     */
+    private int hash;
+
+    /**
+     * Constructs a new matrix with the given dimensions
+     * and initializes all entries to zero.
+     *
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @throws IllegalArgumentException If the number of rows or columns is non-positive
+     */
+    public SparseMatrix(int rows, int columns) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("The number of rows must be positive");
+        }
+        if (columns <= 0) {
+            throw new IllegalArgumentException("The number of columns must be positive");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.rowPointers = new int[rows + 1];
+        this.columnIndices = NO_INDICES;
+        this.values = NO_VALUES;
+    }
+
+    /**
+     * Constructs a matrix directly over the given CSR arrays, without copying them.
+     * The arrays must be in canonical form: sorted columns within each row and no zero values.
+     * This is not checked.
+     */
+    private SparseMatrix(int rows, int columns, int[] rowPointers, int[] columnIndices, double[] values) {
+        this.rows = rows;
+        this.columns = columns;
+        this.rowPointers = rowPointers;
+        this.columnIndices = columnIndices;
+        this.values = values;
+    }
+
+    /**
+     * Constructs a sparse copy of the given matrix.
+     *
+     * @param matrix The matrix
+     * @return The new matrix
+     */
+    public static SparseMatrix of(IMatrix<Double> matrix) {
+        if (matrix instanceof SparseMatrix sparse) {
+            return sparse;
+        }
+        int rows = matrix.getRows();
+        int columns = matrix.getColumns();
+        double[] dense = DenseKernels.rowMajor(matrix);
+        int count = 0;
+        for (double entry : dense) {
+            if (entry != 0) {
+                count++;
+            }
+        }
+        int[] rowPointers = new int[rows + 1];
+        int[] columnIndices = new int[count];
+        double[] values = new double[count];
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                double entry = dense[i * columns + j];
+                if (entry != 0) {
+                    columnIndices[position] = j;
+                    values[position] = entry;
+                    position++;
+                }
+            }
+            rowPointers[i + 1] = position;
+        }
+        return new SparseMatrix(rows, columns, rowPointers, columnIndices, values);
+    }
+
+    /**
+     * Constructs a matrix from entries given in coordinate (COO) form:
+     * entry <code>k</code> adds <code>entryValues[k]</code> at
+     * <code>(entryRows[k], entryColumns[k])</code>. Duplicate coordinates are summed,
+     * and the entries may be given in any order.
+     *
+     * @param rows         The number of rows
+     * @param columns      The number of columns
+     * @param entryRows    The row index of each entry
+     * @param entryColumns The column index of each entry
+     * @param entryValues  The value of each entry
+     * @return The new matrix
+     * @throws IllegalArgumentException  If the dimensions are non-positive or the arrays have different lengths
+     * @throws IndexOutOfBoundsException If an entry is out of bounds
+     */
+    public static SparseMatrix fromCoordinates(int rows, int columns, int[] entryRows, int[] entryColumns, double[] entryValues) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("The number of rows must be positive");
+        }
+        if (columns <= 0) {
+            throw new IllegalArgumentException("The number of columns must be positive");
+        }
+        if (entryRows.length != entryColumns.length || entryRows.length != entryValues.length) {
+            throw new IllegalArgumentException("The coordinate arrays must have the same length");
+        }
+        int count = entryRows.length;
+        int[] rowPointers = new int[rows + 1];
+        for (int k = 0; k < count; k++) {
+            if (entryRows[k] < 0 || entryRows[k] >= rows) {
+                throw new IndexOutOfBoundsException("The row index is out of bounds");
+            }
+            if (entryColumns[k] < 0 || entryColumns[k] >= columns) {
+                throw new IndexOutOfBoundsException("The column index is out of bounds");
+            }
+            rowPointers[entryRows[k] + 1]++;
+        }
+        for (int i = 0; i < rows; i++) {
+            rowPointers[i + 1] += rowPointers[i];
+        }
+        // Bucket the entries by row; within a row, sort by column and then by original position
+        long[] keys = new long[count];
+        int[] next = Arrays.copyOf(rowPointers, rows);
+        for (int k = 0; k < count; k++) {
+            keys[next[entryRows[k]]++] = (long) entryColumns[k] << 32 | k;
+        }
+        int[] columnIndices = new int[count];
+        double[] values = new double[count];
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            int from = rowPointers[i];
+            int to = rowPointers[i + 1];
+            Arrays.sort(keys, from, to);
+            rowPointers[i] = position;
+            for (int p = from; p < to; ) {
+                int column = (int) (keys[p] >>> 32);
+                double sum = 0;
+                for (; p < to && (int) (keys[p] >>> 32) == column; p++) {
+                    sum += entryValues[(int) keys[p]];
+                }
+                if (sum != 0) {
+                    columnIndices[position] = column;
+                    values[position] = sum;
+                    position++;
+                }
+            }
+        }
+        rowPointers[rows] = position;
+        return new SparseMatrix(rows, columns, rowPointers,
+                Arrays.copyOf(columnIndices, position), Arrays.copyOf(values, position));
+    }
+
+    /**
+     * Constructs an identity matrix of the given size.
+     *
+     * @param size The size of the matrix
+     * @return The new identity matrix
+     * @throws IllegalArgumentException If the size is non-positive
+     */
+    public static SparseMatrix identity(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The size must be positive");
+        }
+        int[] rowPointers = new int[size + 1];
+        int[] columnIndices = new int[size];
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            rowPointers[i + 1] = i + 1;
+            columnIndices[i] = i;
+            values[i] = 1;
+        }
+        return new SparseMatrix(size, size, rowPointers, columnIndices, values);
+    }
+
+    /**
+     * Constructs a matrix of the given size with all entries set to zero.
+     *
+     * @param rows    The number of rows
+     * @param columns The number of columns
+     * @return The new zero matrix
+     * @throws IllegalArgumentException If the number of rows or columns is non-positive
+     */
+    public static SparseMatrix zeros(int rows, int columns) {
+        return new SparseMatrix(rows, columns);
+    }
+
+    @Override
+    public SparseMatrix identityLike() {
+        if (rows != columns) {
+            throw new UnsupportedOperationException("The matrix must be square");
+        }
+        return identity(rows);
+    }
+
+    @Override
+    public SparseMatrix zerosLike() {
+        return new SparseMatrix(rows, columns);
+    }
+
+    /**
+     * @return A dense copy of this matrix
+     */
+    public ConcreteMatrix toDense() {
+        return ConcreteMatrix.wrap(rows, columns, toRowMajor());
+    }
+
+    /**
+     * @return The entries of this matrix, in a new row-major array
+     */
+    double[] toRowMajor() {
+        double[] dense = new double[rows * columns];
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                dense[i * columns + columnIndices[p]] = values[p];
+            }
+        }
+        return dense;
+    }
+
+    /**
+     * @return The number of stored (non-zero) entries
+     */
+    public int getNonZeros() {
+        return values.length;
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getColumns() {
+        return columns;
+    }
+
+    @Override
+    public Double get(int row, int column) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("The row index is out of bounds");
+        }
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("The column index is out of bounds");
+        }
+        int position = Arrays.binarySearch(columnIndices, rowPointers[row], rowPointers[row + 1], column);
+        return position >= 0 ? values[position] : 0.0;
+    }
+
+    @Override
+    public SparseMatrix exceptAt(int row, int column, Double value) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("The row index is out of bounds");
+        }
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("The column index is out of bounds");
+        }
+        double entry = value;
+        int position = Arrays.binarySearch(columnIndices, rowPointers[row], rowPointers[row + 1], column);
+        if (position >= 0 && entry != 0) {
+            double[] newValues = values.clone();
+            newValues[position] = entry;
+            return new SparseMatrix(rows, columns, rowPointers, columnIndices, newValues);
+        }
+        if (position < 0 && entry == 0) {
+            return this;
+        }
+        // Insert or remove a single entry, shifting the rest of the arrays by one
+        int delta = position >= 0 ? -1 : 1;
+        int at = position >= 0 ? position : -position - 1;
+        int[] newRowPointers = rowPointers.clone();
+        for (int i = row + 1; i <= rows; i++) {
+            newRowPointers[i] += delta;
+        }
+        int[] newColumnIndices = new int[columnIndices.length + delta];
+        double[] newValues = new double[values.length + delta];
+        System.arraycopy(columnIndices, 0, newColumnIndices, 0, at);
+        System.arraycopy(values, 0, newValues, 0, at);
+        if (delta > 0) {
+            newColumnIndices[at] = column;
+            newValues[at] = entry;
+            System.arraycopy(columnIndices, at, newColumnIndices, at + 1, columnIndices.length - at);
+            System.arraycopy(values, at, newValues, at + 1, values.length - at);
+        } else {
+            System.arraycopy(columnIndices, at + 1, newColumnIndices, at, columnIndices.length - at - 1);
+            System.arraycopy(values, at + 1, newValues, at, values.length - at - 1);
+        }
+        return new SparseMatrix(rows, columns, newRowPointers, newColumnIndices, newValues);
+    }
+
+    @Override
+    public SparseMatrix dropRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("The row index is out of bounds");
+        }
+        int from = rowPointers[row];
+        int removed = rowPointers[row + 1] - from;
+        int[] newRowPointers = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            newRowPointers[i] = i <= row ? rowPointers[i] : rowPointers[i + 1] - removed;
+        }
+        int[] newColumnIndices = new int[columnIndices.length - removed];
+        double[] newValues = new double[values.length - removed];
+        System.arraycopy(columnIndices, 0, newColumnIndices, 0, from);
+        System.arraycopy(values, 0, newValues, 0, from);
+        System.arraycopy(columnIndices, from + removed, newColumnIndices, from, newColumnIndices.length - from);
+        System.arraycopy(values, from + removed, newValues, from, newValues.length - from);
+        return new SparseMatrix(rows - 1, columns, newRowPointers, newColumnIndices, newValues);
+    }
+
+    @Override
+    public SparseMatrix dropColumn(int column) {
+        if (column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("The column index is out of bounds");
+        }
+        int[] newRowPointers = new int[rows + 1];
+        int[] newColumnIndices = new int[columnIndices.length];
+        double[] newValues = new double[values.length];
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                int j = columnIndices[p];
+                if (j == column) {
+                    continue;
+                }
+                newColumnIndices[position] = j < column ? j : j - 1;
+                newValues[position] = values[p];
+                position++;
+            }
+            newRowPointers[i + 1] = position;
+        }
+        return new SparseMatrix(rows, columns - 1, newRowPointers,
+                Arrays.copyOf(newColumnIndices, position), Arrays.copyOf(newValues, position));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This takes <code>O(rows + columns + nonZeros)</code> time.
+     */
+    @Override
+    public SparseMatrix transpose() {
+        int[] newRowPointers = new int[columns + 1];
+        for (int j : columnIndices) {
+            newRowPointers[j + 1]++;
+        }
+        for (int j = 0; j < columns; j++) {
+            newRowPointers[j + 1] += newRowPointers[j];
+        }
+        int[] next = Arrays.copyOf(newRowPointers, columns);
+        int[] newColumnIndices = new int[columnIndices.length];
+        double[] newValues = new double[values.length];
+        // Rows are visited in increasing order, so each new row comes out sorted
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                int position = next[columnIndices[p]]++;
+                newColumnIndices[position] = i;
+                newValues[position] = values[p];
+            }
+        }
+        return new SparseMatrix(columns, rows, newRowPointers, newColumnIndices, newValues);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return A {@link SparseMatrix} if the other matrix is sparse, and a {@link ConcreteMatrix} otherwise
+     */
+    @Override
+    public IMatrix<Double> multiply(IMatrix<Double> other) {
+        if (columns != other.getRows()) {
+            throw new IllegalArgumentException("The number of columns of the first matrix must be equal to the number of rows of the second matrix");
+        }
+        if (other instanceof SparseMatrix sparse) {
+            return multiply(sparse);
+        }
+        int otherColumns = other.getColumns();
+        double[] otherData = DenseKernels.rowMajor(other);
+        double[] newData = new double[rows * otherColumns];
+        ElementKernels elements = ElementKernels.active();
+        long averageRowWork = ((long) values.length / rows + 1) * otherColumns;
+        DenseKernels.forEachRowBlock(rows, averageRowWork, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                    elements.multiplyAdd(values[p], otherData, columnIndices[p] * otherColumns, newData, i * otherColumns, otherColumns);
+                }
+            }
+        });
+        return ConcreteMatrix.wrap(rows, otherColumns, newData);
+    }
+
+    /**
+     * Returns the product of this matrix (left) and the given sparse matrix (right),
+     * computed row by row with a dense accumulator (Gustavson's algorithm).
+     *
+     * @param other The other matrix
+     * @return The product of the two matrices
+     * @throws IllegalArgumentException If the number of columns of the first matrix is not equal to the number of rows of the second matrix
+     */
+    public SparseMatrix multiply(SparseMatrix other) {
+        if (columns != other.rows) {
+            throw new IllegalArgumentException("The number of columns of the first matrix must be equal to the number of rows of the second matrix");
+        }
+        int otherColumns = other.columns;
+        int[] newRowPointers = new int[rows + 1];
+        int[] newColumnIndices = new int[Math.max(values.length, other.values.length)];
+        double[] newValues = new double[newColumnIndices.length];
+        double[] accumulator = new double[otherColumns];
+        int[] lastRow = new int[otherColumns];
+        Arrays.fill(lastRow, -1);
+        int[] touched = new int[otherColumns];
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            int count = 0;
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                int k = columnIndices[p];
+                double factor = values[p];
+                for (int q = other.rowPointers[k]; q < other.rowPointers[k + 1]; q++) {
+                    int j = other.columnIndices[q];
+                    if (lastRow[j] != i) {
+                        lastRow[j] = i;
+                        accumulator[j] = factor * other.values[q];
+                        touched[count++] = j;
+                    } else {
+                        accumulator[j] += factor * other.values[q];
+                    }
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            if (position + count > newColumnIndices.length) {
+                int capacity = Math.max(position + count, newColumnIndices.length * 2);
+                newColumnIndices = Arrays.copyOf(newColumnIndices, capacity);
+                newValues = Arrays.copyOf(newValues, capacity);
+            }
+            for (int t = 0; t < count; t++) {
+                int j = touched[t];
+                if (accumulator[j] != 0) {
+                    newColumnIndices[position] = j;
+                    newValues[position] = accumulator[j];
+                    position++;
+                }
+            }
+            newRowPointers[i + 1] = position;
+        }
+        return new SparseMatrix(rows, otherColumns, newRowPointers,
+                Arrays.copyOf(newColumnIndices, position), Arrays.copyOf(newValues, position));
+    }
+
+    /**
+     * Computes the product of a dense row-major matrix (left) and the given sparse matrix (right).
+     *
+     * @param left     The entries of the left matrix, in row-major order
+     * @param leftRows The number of rows of the left matrix
+     * @param right    The right matrix, with as many rows as the left matrix has columns
+     * @return The entries of the product, in a new row-major array
+     */
+    static double[] multiply(double[] left, int leftRows, SparseMatrix right) {
+        int shared = right.rows;
+        int otherColumns = right.columns;
+        double[] newData = new double[leftRows * otherColumns];
+        DenseKernels.forEachRowBlock(leftRows, right.values.length + 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int row = i * otherColumns;
+                for (int k = 0; k < shared; k++) {
+                    double factor = left[i * shared + k];
+                    for (int q = right.rowPointers[k]; q < right.rowPointers[k + 1]; q++) {
+                        newData[row + right.columnIndices[q]] += factor * right.values[q];
+                    }
+                }
+            }
+        });
+        return newData;
+    }
+
+    @Override
+    public SparseMatrix multiply(Double scalar) {
+        double factor = scalar;
+        return map(entry -> entry * factor);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return A {@link SparseMatrix} if the other matrix is sparse, and a {@link ConcreteMatrix} otherwise
+     */
+    @Override
+    public IMatrix<Double> add(IMatrix<Double> other) {
+        if (rows != other.getRows() || columns != other.getColumns()) {
+            throw new IllegalArgumentException("The matrices must have the same dimensions");
+        }
+        if (other instanceof SparseMatrix sparse) {
+            return add(sparse);
+        }
+        double[] newData = other instanceof ConcreteMatrix ? DenseKernels.rowMajor(other).clone() : DenseKernels.rowMajor(other);
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                int index = i * columns + columnIndices[p];
+                newData[index] = values[p] + newData[index];
+            }
+        }
+        return ConcreteMatrix.wrap(rows, columns, newData);
+    }
+
+    /**
+     * Returns the sum of this matrix and the given sparse matrix,
+     * computed by merging the rows of both.
+     *
+     * @param other The other matrix
+     * @return The sum of the two matrices
+     * @throws IllegalArgumentException If the matrices do not have the same dimensions
+     */
+    public SparseMatrix add(SparseMatrix other) {
+        if (rows != other.rows || columns != other.columns) {
+            throw new IllegalArgumentException("The matrices must have the same dimensions");
+        }
+        int[] newRowPointers = new int[rows + 1];
+        int[] newColumnIndices = new int[values.length + other.values.length];
+        double[] newValues = new double[newColumnIndices.length];
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            int p = rowPointers[i];
+            int q = other.rowPointers[i];
+            int pEnd = rowPointers[i + 1];
+            int qEnd = other.rowPointers[i + 1];
+            while (p < pEnd || q < qEnd) {
+                int j;
+                double sum;
+                if (q >= qEnd || (p < pEnd && columnIndices[p] < other.columnIndices[q])) {
+                    j = columnIndices[p];
+                    sum = values[p++];
+                } else if (p >= pEnd || other.columnIndices[q] < columnIndices[p]) {
+                    j = other.columnIndices[q];
+                    sum = other.values[q++];
+                } else {
+                    j = columnIndices[p];
+                    sum = values[p++] + other.values[q++];
+                }
+                if (sum != 0) {
+                    newColumnIndices[position] = j;
+                    newValues[position] = sum;
+                    position++;
+                }
+            }
+            newRowPointers[i + 1] = position;
+        }
+        return new SparseMatrix(rows, columns, newRowPointers,
+                Arrays.copyOf(newColumnIndices, position), Arrays.copyOf(newValues, position));
+    }
+
+    @Override
+    public SparseMatrix negate() {
+        return map(entry -> -entry);
+    }
+
+    /**
+     * Applies the given function to every stored entry, dropping entries that become zero.
+     * Entries that are not stored are not passed to the function.
+     */
+    private SparseMatrix map(DoubleUnaryOperator function) {
+        int[] newRowPointers = new int[rows + 1];
+        int[] newColumnIndices = new int[columnIndices.length];
+        double[] newValues = new double[values.length];
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                double entry = function.applyAsDouble(values[p]);
+                if (entry != 0) {
+                    newColumnIndices[position] = columnIndices[p];
+                    newValues[position] = entry;
+                    position++;
+                }
+            }
+            newRowPointers[i + 1] = position;
+        }
+        if (position == values.length) {
+            return new SparseMatrix(rows, columns, rowPointers, columnIndices, newValues);
+        }
+        return new SparseMatrix(rows, columns, newRowPointers,
+                Arrays.copyOf(newColumnIndices, position), Arrays.copyOf(newValues, position));
+    }
+
+    @Override
+    public SparseMatrix resize(int newRows, int newColumns) {
+        if ((long) newRows * newColumns != (long) rows * columns) {
+            throw new IllegalArgumentException("The number of entries must remain the same");
+        }
+        // Entries are stored in row-major order, which does not depend on the shape
+        int[] newRowPointers = new int[newRows + 1];
+        int[] newColumnIndices = new int[columnIndices.length];
+        for (int i = 0; i < rows; i++) {
+            for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                long index = (long) i * columns + columnIndices[p];
+                newRowPointers[(int) (index / newColumns) + 1]++;
+                newColumnIndices[p] = (int) (index % newColumns);
+            }
+        }
+        for (int i = 0; i < newRows; i++) {
+            newRowPointers[i + 1] += newRowPointers[i];
+        }
+        return new SparseMatrix(newRows, newColumns, newRowPointers, newColumnIndices, values);
+    }
+
+    /**
+     * Compares this matrix with a {@link SparseMatrix} or a {@link ConcreteMatrix}.
+     * As with {@link ConcreteMatrix}, entries are compared numerically,
+     * so zero and negative zero are considered equal.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof SparseMatrix other) {
+            if (rows != other.rows || columns != other.columns) {
+                return false;
+            }
+            if (hash != 0 && other.hash != 0 && hash != other.hash) {
+                return false;
+            }
+            if (!Arrays.equals(rowPointers, other.rowPointers) || !Arrays.equals(columnIndices, other.columnIndices)) {
+                return false;
+            }
+            for (int p = 0; p < values.length; p++) {
+                if (values[p] != other.values[p]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (obj instanceof ConcreteMatrix other) {
+            if (rows != other.getRows() || columns != other.getColumns()) {
+                return false;
+            }
+            if (hash != 0 && other.cachedHashCode() != 0 && hash != other.cachedHashCode()) {
+                return false;
+            }
+            double[] dense = other.rowMajor();
+            for (int i = 0; i < rows; i++) {
+                int p = rowPointers[i];
+                for (int j = 0; j < columns; j++) {
+                    double entry = p < rowPointers[i + 1] && columnIndices[p] == j ? values[p++] : 0;
+                    if (dense[i * columns + j] != entry) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = hashSeed(rows, columns);
+            for (int i = 0; i < rows; i++) {
+                for (int p = rowPointers[i]; p < rowPointers[i + 1]; p++) {
+                    result = hashEntry(result, (long) i * columns + columnIndices[p], values[p]);
+                }
+            }
+            hash = result;
+        }
+        return result;
+    }
+
+    /**
+     * The hash code of a real-valued matrix is defined in terms of its dimensions and its
+     * non-zero entries, visited in row-major order. This way it agrees between
+     * {@link ConcreteMatrix} and {@link SparseMatrix}, and between zero and negative zero.
+     *
+     * @return The initial hash of a matrix with the given dimensions
+     */
+    static int hashSeed(int rows, int columns) {
+        return 31 * rows + columns;
+    }
+
+    /**
+     * @return The hash after visiting the non-zero entry at the given row-major index
+     * @see #hashSeed(int, int)
+     */
+    static int hashEntry(int hash, long index, double value) {
+        // Small integers differ only in the high bits of their hash codes, so the entry is mixed first
+        long bits = Double.doubleToLongBits(value) ^ index * 0x9E3779B97F4A7C15L;
+        bits = (bits ^ (bits >>> 33)) * 0xFF51AFD7ED558CCDL;
+        bits = (bits ^ (bits >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return 31 * hash + (int) (bits ^ (bits >>> 33));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(", \n");
+            }
+            int p = rowPointers[i];
+            for (int j = 0; j < columns; j++) {
+                if (j > 0) {
+                    sb.append(", ");
+                }
+                sb.append(p < rowPointers[i + 1] && columnIndices[p] == j ? values[p++] : 0.0);
+            }
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
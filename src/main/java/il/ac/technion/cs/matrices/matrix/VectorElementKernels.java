@@ -0,0 +1,73 @@
+package il.ac.technion.cs.matrices.matrix;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * An implementation of {@link ElementKernels} using the incubating Vector API.
+ * This class must only be loaded reflectively, see {@link ElementKernelSelection}.
+ */
+final class VectorElementKernels implements ElementKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorElementKernels() {
+    }
+
+    @Override
+    public void add(double[] a, double[] b, double[] c, int from, int to) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(c, i);
+        }
+        for (; i < to; i++) {
+            c[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public void subtract(double[] a, double[] b, double[] c, int from, int to) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).sub(DoubleVector.fromArray(SPECIES, b, i)).intoArray(c, i);
+        }
+        for (; i < to; i++) {
+            c[i] = a[i] - b[i];
+        }
+    }
+
+    @Override
+    public void negate(double[] a, double[] c, int from, int to) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).neg().intoArray(c, i);
+        }
+        for (; i < to; i++) {
+            c[i] = -a[i];
+        }
+    }
+
+    @Override
+    public void scale(double[] a, double scalar, double[] c, int from, int to) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).mul(scalar).intoArray(c, i);
+        }
+        for (; i < to; i++) {
+            c[i] = a[i] * scalar;
+        }
+    }
+
+    @Override
+    public void multiplyAdd(double factor, double[] x, int xFrom, double[] y, int yFrom, int length) {
+        DoubleVector factors = DoubleVector.broadcast(SPECIES, factor);
+        int i = 0;
+        for (int upper = SPECIES.loopBound(length); i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, xFrom + i)
+                    .fma(factors, DoubleVector.fromArray(SPECIES, y, yFrom + i))
+                    .intoArray(y, yFrom + i);
+        }
+        for (; i < length; i++) {
+            y[yFrom + i] = Math.fma(factor, x[xFrom + i], y[yFrom + i]);
+        }
+    }
+}
@@ -0,0 +1,586 @@
+package il.ac.technion.cs.matrices.synthesis;
+
+import il.ac.technion.cs.matrices.ast.AstFactory;
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.ast.ClassConstantNode;
+import il.ac.technion.cs.matrices.ast.EvaluationCache;
+import il.ac.technion.cs.matrices.ast.MethodCallNode;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Enumerates expressions bottom-up, one depth at a time: the expressions of depth <code>d</code> are
+ * the variables for <code>d = 0</code>, and otherwise the unary methods applied to expressions of depth
+ * <code>d - 1</code> and the binary methods applied to pairs of expressions of depth less than <code>d</code>,
+ * at least one of which is of depth <code>d - 1</code>. Levels are built on demand, so a consumer can stop
+ * at any expression without building the rest of its level.
+ * <p>
+ * If an {@link EvaluationCache} is given, the enumeration is directed by the examples of the cache:
+ * <ul>
+ *     <li>The shape of every expression on every example is tracked, starting from the shapes of the variables,
+ *     and only well-shaped expressions are built: <code>add</code> and <code>subtract</code> of operands of
+ *     equal shapes, and <code>multiply</code> of operands whose inner dimensions agree. In addition,
+ *     <code>resize</code> is applied to expressions of the previous depth, for every given target shape
+ *     with the same number of entries on all the examples.</li>
+ *     <li>Expressions are pruned by observational equivalence: every new expression is evaluated on the examples
+ *     of the cache, and it is discarded if its values on all the examples are equal to those of an expression that
+ *     was kept before it. Since expressions are enumerated by depth, such an expression is never deeper. Values are
+ *     compared by their hash codes first, and then by <code>equals</code>. An expression whose evaluation
+ *     nevertheless throws is discarded as well.</li>
+ * </ul>
+ */
+public final class BottomUpEnumerator {
+    /**
+     * The unary methods used by default.
+     */
+    public static final List<String> UNARY = List.of("transpose");
+    /**
+     * The binary methods of operands of the same shape.
+     */
+    public static final List<String> ELEMENTWISE = List.of("add", "subtract");
+    /**
+     * The matrix product.
+     */
+    public static final String MULTIPLY = "multiply";
+
+    private final AstFactory factory;
+    private final EvaluationCache cache;
+    private final List<Shape> resizeShapes;
+    private final List<List<AstNode<? extends IMatrix<?>>>> levels = new ArrayList<>();
+    /**
+     * The shapes of the kept expressions on all the examples, if there are examples.
+     */
+    private final Map<AstNode<?>, Shapes> shapes = new HashMap<>();
+    /**
+     * The kept expressions, by their values on the examples.
+     */
+    private final Map<Observation, AstNode<? extends IMatrix<?>>> observed = new HashMap<>();
+    private boolean complete = true;
+    private long pruned;
+    private int batchSize = 1;
+    private Consumer<List<AstNode<? extends IMatrix<?>>>> batchConsumer;
+
+    /**
+     * The values of an expression on all the examples.
+     */
+    private record Observation(Object[] values, int hash) {
+        Observation(Object[] values) {
+            this(values, Arrays.hashCode(values));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Observation other && hash == other.hash && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The shapes of an expression on all the examples, as rows and columns in alternation.
+     */
+    private record Shapes(int[] dimensions) {
+        /**
+         * Returns the given shape on every example.
+         */
+        static Shapes of(Shape shape, int examples) {
+            int[] dimensions = new int[2 * examples];
+            for (int i = 0; i < dimensions.length; i += 2) {
+                dimensions[i] = shape.rows();
+                dimensions[i + 1] = shape.columns();
+            }
+            return new Shapes(dimensions);
+        }
+
+        Dimensions rows() {
+            return every(0);
+        }
+
+        Dimensions columns() {
+            return every(1);
+        }
+
+        private Dimensions every(int offset) {
+            int[] result = new int[dimensions.length / 2];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = dimensions[2 * i + offset];
+            }
+            return new Dimensions(result);
+        }
+
+        Shapes transpose() {
+            int[] result = new int[dimensions.length];
+            for (int i = 0; i < result.length; i += 2) {
+                result[i] = dimensions[i + 1];
+                result[i + 1] = dimensions[i];
+            }
+            return new Shapes(result);
+        }
+
+        Shapes multiply(Shapes other) {
+            int[] result = new int[dimensions.length];
+            for (int i = 0; i < result.length; i += 2) {
+                result[i] = dimensions[i];
+                result[i + 1] = other.dimensions[i + 1];
+            }
+            return new Shapes(result);
+        }
+
+        /**
+         * Returns whether this is the given shape on every example.
+         */
+        boolean is(Shape shape) {
+            for (int i = 0; i < dimensions.length; i += 2) {
+                if (dimensions[i] != shape.rows() || dimensions[i + 1] != shape.columns()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns whether the number of entries is the size of the given shape on every example.
+         */
+        boolean resizableTo(Shape shape) {
+            for (int i = 0; i < dimensions.length; i += 2) {
+                if ((long) dimensions[i] * dimensions[i + 1] != shape.size()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Shapes other && Arrays.equals(dimensions, other.dimensions);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(dimensions);
+        }
+    }
+
+    /**
+     * One dimension of an expression on all the examples.
+     */
+    private record Dimensions(int[] values) {
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Dimensions other && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    /**
+     * Creates an enumerator of all the expressions over the given number of variables.
+     *
+     * @param factory      The factory of the nodes
+     * @param numVariables The number of variables
+     * @throws IllegalArgumentException If the number of variables is non-positive
+     */
+    public BottomUpEnumerator(AstFactory factory, int numVariables) {
+        this(factory, numVariables, null, List.of());
+    }
+
+    /**
+     * Creates an enumerator of the well-shaped expressions over the given number of variables which are pairwise
+     * observationally distinct on the examples of the given cache, without resizing.
+     *
+     * @param factory      The factory of the nodes
+     * @param numVariables The number of variables
+     * @param cache        The cache to evaluate the expressions with, or null to enumerate all the expressions
+     * @throws IllegalArgumentException If the number of variables is non-positive
+     */
+    public BottomUpEnumerator(AstFactory factory, int numVariables, EvaluationCache cache) {
+        this(factory, numVariables, cache, List.of());
+    }
+
+    /**
+     * Creates an enumerator of the well-shaped expressions over the given number of variables which are pairwise
+     * observationally distinct on the examples of the given cache.
+     *
+     * @param factory      The factory of the nodes
+     * @param numVariables The number of variables
+     * @param cache        The cache to evaluate the expressions with, or null to enumerate all the expressions
+     * @param resizeShapes The shapes to resize expressions to, which are ignored if there is no cache
+     * @throws IllegalArgumentException If the number of variables is non-positive
+     */
+    public BottomUpEnumerator(AstFactory factory, int numVariables, EvaluationCache cache, List<Shape> resizeShapes) {
+        if (numVariables <= 0) {
+            throw new IllegalArgumentException("The number of variables must be positive");
+        }
+        this.factory = factory;
+        this.cache = cache;
+        this.resizeShapes = List.copyOf(resizeShapes);
+        List<AstNode<? extends IMatrix<?>>> variables = new ArrayList<>();
+        for (int i = 0; i < numVariables; i++) {
+            AstNode<? extends IMatrix<?>> variable = factory.variable(i);
+            if (keep(variable, cache == null ? null : shapeOf(variable), true)) {
+                variables.add(variable);
+            }
+        }
+        levels.add(variables);
+    }
+
+    private Shapes shapeOf(AstNode<?> variable) {
+        int[] dimensions = new int[2 * cache.getExampleCount()];
+        for (int i = 0; i < cache.getExampleCount(); i++) {
+            IMatrix<?> value = (IMatrix<?>) cache.evaluate(variable, i);
+            dimensions[2 * i] = value.getRows();
+            dimensions[2 * i + 1] = value.getColumns();
+        }
+        return new Shapes(dimensions);
+    }
+
+    /**
+     * Returns the depth of the deepest level built so far.
+     *
+     * @return The depth
+     */
+    public int getDepth() {
+        return levels.size() - 1;
+    }
+
+    /**
+     * Returns the kept expressions of the given depth.
+     *
+     * @param depth The depth, at most {@link #getDepth()}
+     * @return The expressions, which must not be modified
+     * @throws IndexOutOfBoundsException If the depth was not built yet
+     */
+    public List<AstNode<? extends IMatrix<?>>> getLevel(int depth) {
+        return levels.get(depth);
+    }
+
+    /**
+     * Returns the number of expressions discarded so far.
+     *
+     * @return The number of discarded expressions
+     */
+    public long getPruned() {
+        return pruned;
+    }
+
+    /**
+     * Sets a consumer of the new candidates, which is passed them in batches of the given size (except for the
+     * last batch of every level) before they are checked: for example, to evaluate them concurrently in the cache,
+     * so that checking them only finds cached values. The consumer may stop the enumeration by throwing,
+     * in which case the level is left incomplete.
+     *
+     * @param batchSize The size of the batches
+     * @param consumer  The consumer of the batches, or null to check the candidates one by one
+     * @throws IllegalArgumentException If the batch size is non-positive
+     */
+    public void setBatchConsumer(int batchSize, Consumer<List<AstNode<? extends IMatrix<?>>>> consumer) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive");
+        }
+        this.batchSize = consumer == null ? 1 : batchSize;
+        this.batchConsumer = consumer;
+    }
+
+    /**
+     * Builds the next level, passing every kept expression to the given consumer
+     * until it returns false, in which case the level is left incomplete.
+     *
+     * @param consumer The consumer of the new expressions
+     * @return Whether the level is complete
+     * @throws IllegalStateException If the previous level is incomplete
+     */
+    public boolean nextLevel(Predicate<AstNode<? extends IMatrix<?>>> consumer) {
+        Iterator<AstNode<? extends IMatrix<?>>> level = level(true);
+        while (level.hasNext()) {
+            if (!consumer.test(level.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a stream of the expressions of the levels after {@link #getDepth()}, up to the given depth,
+     * which are built only as the stream is consumed. The stream ends early if a level is empty, since
+     * so are all the deeper levels.
+     * <p>
+     * The expressions of the last level are neither kept, nor interned by the factory, nor recorded for
+     * observational equivalence, so enumerating it takes memory only for the previous levels.
+     * They are still pruned if they are equivalent to an expression of a previous level, but not if they are
+     * equivalent to each other. Hence, no more levels can be built if the stream reaches it.
+     *
+     * @param depth The depth of the last level
+     * @return The stream, which throws {@link IllegalStateException} if the current level is incomplete
+     */
+    public Stream<AstNode<? extends IMatrix<?>>> stream(int depth) {
+        Iterator<AstNode<? extends IMatrix<?>>> iterator = new Iterator<>() {
+            private int current = getDepth();
+            private Iterator<AstNode<? extends IMatrix<?>>> level = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!level.hasNext()) {
+                    if (current >= depth || levels.get(current).isEmpty()) {
+                        return false;
+                    }
+                    current++;
+                    level = level(current < depth);
+                }
+                return true;
+            }
+
+            @Override
+            public AstNode<? extends IMatrix<?>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return level.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Starts building the next level, which is kept if so requested.
+     */
+    private Iterator<AstNode<? extends IMatrix<?>>> level(boolean keepLevel) {
+        if (!complete) {
+            throw new IllegalStateException("The previous level is incomplete");
+        }
+        List<AstNode<? extends IMatrix<?>>> previous = levels.get(levels.size() - 1);
+        List<AstNode<? extends IMatrix<?>>> smaller = new ArrayList<>();
+        levels.forEach(smaller::addAll);
+        List<AstNode<? extends IMatrix<?>>> next = null;
+        if (keepLevel) {
+            next = new ArrayList<>();
+            levels.add(next);
+        }
+        complete = false;
+        boolean typed = cache != null;
+        List<Step> steps = new ArrayList<>();
+        for (String method : UNARY) {
+            for (AstNode<? extends IMatrix<?>> operand : previous) {
+                steps.add(new Step(method, operand, new AstNode<?>[0], typed ? shapes.get(operand).transpose() : null, null, 0));
+            }
+        }
+        if (typed) {
+            for (Shape shape : resizeShapes) {
+                AstNode<?>[] dimensions = {
+                        factory.constant(ClassConstantNode.getConstantValue(shape.rows())),
+                        factory.constant(ClassConstantNode.getConstantValue(shape.columns()))
+                };
+                Shapes resized = Shapes.of(shape, cache.getExampleCount());
+                for (AstNode<? extends IMatrix<?>> operand : previous) {
+                    Shapes operandShapes = shapes.get(operand);
+                    if (operandShapes.resizableTo(shape) && !operandShapes.is(shape)) {
+                        steps.add(new Step("resize", operand, dimensions, resized, null, 0));
+                    }
+                }
+            }
+        }
+        // At least one of the operands must be of the previous depth
+        int shallow = smaller.size() - previous.size();
+        Map<Object, List<Integer>> byShape = new HashMap<>();
+        Map<Object, List<Integer>> byRows = new HashMap<>();
+        if (typed) {
+            for (int j = 0; j < smaller.size(); j++) {
+                Shapes operandShapes = shapes.get(smaller.get(j));
+                byShape.computeIfAbsent(operandShapes, key -> new ArrayList<>()).add(j);
+                byRows.computeIfAbsent(operandShapes.rows(), key -> new ArrayList<>()).add(j);
+            }
+        }
+        for (String method : ELEMENTWISE) {
+            for (int i = 0; i < smaller.size(); i++) {
+                Shapes left = typed ? shapes.get(smaller.get(i)) : null;
+                steps.add(pairs(method, smaller.get(i), i < shallow, shallow, left, typed ? byShape.get(left) : null));
+            }
+        }
+        for (int i = 0; i < smaller.size(); i++) {
+            Shapes left = typed ? shapes.get(smaller.get(i)) : null;
+            steps.add(pairs(MULTIPLY, smaller.get(i), i < shallow, shallow, left,
+                    typed ? byRows.getOrDefault(left.columns(), List.of()) : null));
+        }
+        return new Level(smaller, steps, next);
+    }
+
+    /**
+     * Returns the step of the given method applied to the given left operand and every right operand,
+     * or every expression if the right operands are null, skipping those shallower than the previous depth
+     * if the left operand is shallower as well.
+     */
+    private static Step pairs(String method, AstNode<? extends IMatrix<?>> left, boolean leftShallow, int shallow,
+                              Shapes leftShapes, List<Integer> rightOperands) {
+        int from = 0;
+        if (leftShallow) {
+            // The indices are increasing
+            from = rightOperands == null ? shallow : Collections.binarySearch(rightOperands, shallow);
+            from = from < 0 ? -from - 1 : from;
+        }
+        return new Step(method, left, null, leftShapes, rightOperands, from);
+    }
+
+    /**
+     * The calls of a method on an operand: with the given arguments if there are any, and otherwise with every
+     * right operand from the given position, where null right operands stand for every smaller expression.
+     * The shapes are those of the call if there are arguments, and otherwise those of the operand.
+     */
+    private record Step(String method, AstNode<? extends IMatrix<?>> operand, AstNode<?>[] arguments, Shapes shapes,
+                        List<Integer> rightOperands, int from) {
+    }
+
+    /**
+     * A new expression, which is not checked yet, and its shapes.
+     */
+    private record Candidate(AstNode<? extends IMatrix<?>> node, Shapes shapes) {
+    }
+
+    /**
+     * The kept expressions of a level, built on demand.
+     */
+    private final class Level implements Iterator<AstNode<? extends IMatrix<?>>> {
+        private final List<AstNode<? extends IMatrix<?>>> smaller;
+        private final List<Step> steps;
+        /**
+         * The kept expressions returned so far, or null if the level is not kept.
+         */
+        private final List<AstNode<? extends IMatrix<?>>> nodes;
+        private final List<Candidate> batch = new ArrayList<>();
+        private int step;
+        private int position;
+        private int checked;
+        private AstNode<? extends IMatrix<?>> next;
+
+        Level(List<AstNode<? extends IMatrix<?>>> smaller, List<Step> steps, List<AstNode<? extends IMatrix<?>>> nodes) {
+            this.smaller = smaller;
+            this.steps = steps;
+            this.nodes = nodes;
+            this.position = steps.isEmpty() ? 0 : steps.get(0).from();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (checked == batch.size() && !nextBatch()) {
+                    complete = nodes != null;
+                    return false;
+                }
+                Candidate candidate = batch.get(checked++);
+                if (keep(candidate.node(), candidate.shapes(), nodes != null)) {
+                    if (nodes != null) {
+                        nodes.add(candidate.node());
+                    }
+                    next = candidate.node();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public AstNode<? extends IMatrix<?>> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            AstNode<? extends IMatrix<?>> result = next;
+            next = null;
+            return result;
+        }
+
+        /**
+         * Builds the next batch of candidates and passes it to the batch consumer, if there is one.
+         * Returns false if there are no more candidates.
+         */
+        private boolean nextBatch() {
+            batch.clear();
+            checked = 0;
+            while (batch.size() < batchSize && step < steps.size()) {
+                Step current = steps.get(step);
+                int end = current.arguments() != null ? 1
+                        : current.rightOperands() != null ? current.rightOperands().size() : smaller.size();
+                if (position < end) {
+                    batch.add(build(current, position++));
+                } else if (++step < steps.size()) {
+                    position = steps.get(step).from();
+                }
+            }
+            if (batch.isEmpty()) {
+                return false;
+            }
+            if (batchConsumer != null) {
+                List<AstNode<? extends IMatrix<?>>> candidates = new ArrayList<>(batch.size());
+                batch.forEach(candidate -> candidates.add(candidate.node()));
+                batchConsumer.accept(candidates);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the given call of the given step.
+         */
+        private Candidate build(Step step, int position) {
+            AstNode<?>[] arguments = step.arguments();
+            Shapes result = step.shapes();
+            if (arguments == null) {
+                AstNode<? extends IMatrix<?>> right =
+                        smaller.get(step.rightOperands() == null ? position : step.rightOperands().get(position));
+                arguments = new AstNode<?>[]{right};
+                if (result != null && step.method().equals(MULTIPLY)) {
+                    result = result.multiply(shapes.get(right));
+                }
+            }
+            // The operands are interned already, so an expression which is not kept can skip the factory
+            AstNode<? extends IMatrix<?>> candidate = nodes != null
+                    ? factory.call(step.method(), step.operand(), arguments)
+                    : new MethodCallNode<>(step.method(), step.operand(), arguments);
+            return new Candidate(candidate, result);
+        }
+    }
+
+    /**
+     * Returns whether the given expression should be kept, and records it if so and if requested.
+     * An expression that is not recorded is still pruned if it is equivalent to a recorded one,
+     * but not if it is equivalent to another expression that is not recorded.
+     */
+    private boolean keep(AstNode<? extends IMatrix<?>> candidate, Shapes candidateShapes, boolean record) {
+        if (cache == null) {
+            return true;
+        }
+        Object[] values = new Object[cache.getExampleCount()];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = cache.evaluate(candidate, i);
+            } catch (RuntimeException e) {
+                pruned++;
+                return false; // so does every expression that contains it
+            }
+        }
+        Observation observation = new Observation(values);
+        if (record ? observed.putIfAbsent(observation, candidate) != null : observed.containsKey(observation)) {
+            pruned++;
+            return false;
+        }
+        if (record) {
+            shapes.put(candidate, candidateShapes);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+package il.ac.technion.cs.matrices.synthesis;
+
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.ast.EvaluationCache;
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SparseMatrix;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * Checks candidates against the examples of an {@link EvaluationCache}, stopping at the first example
+ * that rejects a candidate. The examples are checked in an adaptive order: at first, by the size of their
+ * outputs, and then, periodically, by the expected time it takes each of them to reject a candidate,
+ * which is its average checking time divided by the fraction of the candidates it rejected.
+ * Examples that were never checked come first, and examples that never rejected a candidate come last.
+ * <p>
+ * Matrices are compared by their cached hash codes before their entries.
+ * <p>
+ * The order saves evaluations only for callers that do not need the values of rejected candidates.
+ * {@link MySynthesizer} does need them, since its enumerator prunes by the values on all the examples,
+ * so there the order only decides which comparison rejects a candidate, and does not measurably speed it up.
+ * <p>
+ * The statistics of every example are exposed for tuning. Objects of this class are thread-safe.
+ */
+public final class ExampleVerifier {
+    /**
+     * The number of checked candidates between reorderings.
+     */
+    private static final int REORDER_INTERVAL = 1024;
+
+    private final EvaluationCache cache;
+    private final List<IMatrix<Double>> outputs;
+    private final AtomicLongArray checks;
+    private final AtomicLongArray rejections;
+    private final AtomicLongArray nanos;
+    private final AtomicLong candidates = new AtomicLong();
+    private volatile int[] order;
+
+    /**
+     * The statistics of an example.
+     *
+     * @param example    The index of the example
+     * @param checks     The number of candidates checked against the example
+     * @param rejections The number of candidates the example rejected
+     * @param nanos      The total time spent checking candidates against the example, in nanoseconds
+     */
+    public record Statistics(int example, long checks, long rejections, long nanos) {
+        /**
+         * Returns the fraction of the checked candidates that the example rejected.
+         *
+         * @return The rejection rate, or 0 if no candidate was checked
+         */
+        public double rejectionRate() {
+            return checks == 0 ? 0 : (double) rejections / checks;
+        }
+
+        /**
+         * Returns the average time it takes to check a candidate against the example.
+         *
+         * @return The average time in nanoseconds, or 0 if no candidate was checked
+         */
+        public double averageNanos() {
+            return checks == 0 ? 0 : (double) nanos / checks;
+        }
+
+        /**
+         * Returns the expected time it takes the example to reject a candidate.
+         */
+        private double cost() {
+            if (checks == 0) {
+                return 0;
+            }
+            return rejections == 0 ? Double.POSITIVE_INFINITY : (double) nanos / rejections;
+        }
+    }
+
+    /**
+     * Creates a new verifier.
+     *
+     * @param cache   The cache to evaluate the candidates with
+     * @param outputs The output of every example of the cache
+     * @throws IllegalArgumentException If the number of outputs is not the number of examples
+     */
+    public ExampleVerifier(EvaluationCache cache, List<IMatrix<Double>> outputs) {
+        if (outputs.size() != cache.getExampleCount()) {
+            throw new IllegalArgumentException("There must be an output for every example");
+        }
+        this.cache = cache;
+        this.outputs = List.copyOf(outputs);
+        this.checks = new AtomicLongArray(outputs.size());
+        this.rejections = new AtomicLongArray(outputs.size());
+        this.nanos = new AtomicLongArray(outputs.size());
+        for (IMatrix<Double> output : outputs) {
+            if (output instanceof ConcreteMatrix || output instanceof SparseMatrix) {
+                output.hashCode();
+            }
+        }
+        // Until there are statistics, smaller outputs are assumed to be cheaper
+        this.order = IntStream.range(0, outputs.size()).boxed()
+                .sorted(Comparator.comparingLong(i -> (long) outputs.get(i).getRows() * outputs.get(i).getColumns()))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Returns whether the given candidate fits all the examples.
+     * A candidate whose evaluation throws does not fit.
+     *
+     * @param candidate The candidate
+     * @return Whether the candidate fits
+     */
+    public boolean fits(AstNode<? extends IMatrix<?>> candidate) {
+        boolean fits = true;
+        for (int example : order) {
+            long start = System.nanoTime();
+            boolean matches;
+            try {
+                matches = matches(cache.evaluate(candidate, example), outputs.get(example));
+            } catch (RuntimeException e) {
+                matches = false;
+            }
+            checks.incrementAndGet(example);
+            nanos.addAndGet(example, System.nanoTime() - start);
+            if (!matches) {
+                rejections.incrementAndGet(example);
+                fits = false;
+                break;
+            }
+        }
+        if (candidates.incrementAndGet() % REORDER_INTERVAL == 0) {
+            reorder();
+        }
+        return fits;
+    }
+
+    private static boolean matches(Object value, IMatrix<Double> output) {
+        if (value instanceof ConcreteMatrix concrete) {
+            // Caches the hash code, which equals then compares first, and which the enumerator reuses
+            concrete.hashCode();
+        }
+        return output.equals(value);
+    }
+
+    /**
+     * Returns the order in which the examples are currently checked.
+     *
+     * @return The indices of the examples
+     */
+    public int[] getOrder() {
+        return order.clone();
+    }
+
+    /**
+     * Returns the statistics of every example, by the index of the example.
+     *
+     * @return The statistics
+     */
+    public List<Statistics> getStatistics() {
+        List<Statistics> result = new ArrayList<>(outputs.size());
+        for (int i = 0; i < outputs.size(); i++) {
+            result.add(new Statistics(i, checks.get(i), rejections.get(i), nanos.get(i)));
+        }
+        return result;
+    }
+
+    private void reorder() {
+        order = getStatistics().stream()
+                .sorted(Comparator.comparingDouble(Statistics::cost).thenComparingDouble(Statistics::averageNanos))
+                .mapToInt(Statistics::example)
+                .toArray();
+    }
+}
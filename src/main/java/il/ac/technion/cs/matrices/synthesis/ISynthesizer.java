@@ -6,6 +6,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 /**
  * A synthesizer for matrix expressions.
@@ -24,6 +25,20 @@ public interface ISynthesizer {
     @NotNull
     List<AstNode<? extends IMatrix<?>>> enumerate(int depth, int numVariables);
 
+    /**
+     * This method enumerates the same expressions as {@link #enumerate(int, int)}, in the same order,
+     * as a stream which may build them only as it is consumed. By default, the stream is of the list
+     * returned by {@link #enumerate(int, int)}.
+     *
+     * @param depth        The depth of the expressions. Must be non-negative.
+     * @param numVariables The number of variables that can be used in the expressions.
+     *                     Must be positive.
+     */
+    @NotNull
+    default Stream<AstNode<? extends IMatrix<?>>> enumerateLazily(int depth, int numVariables) {
+        return enumerate(depth, numVariables).stream();
+    }
+
     /**
      * This method synthesizes a matrix expression that fits the given examples.
      * If it is not possible to synthesize an expression within @{link #TIMEOUT_MILLIS} milliseconds,
@@ -0,0 +1,329 @@
+package il.ac.technion.cs.matrices.synthesis;
+
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.ast.MethodCallNode;
+import il.ac.technion.cs.matrices.ast.VariableNode;
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Solves sketches in which the hole appears linearly, without an SMT solver.
+ * The sketches are those of {@link SketchSolver}, and the linear ones are a single call of
+ * <code>add</code>, <code>subtract</code> or <code>multiply</code> between the hole and a program over the variables,
+ * such as <code>var0.add(C)</code> or <code>C.multiply(var0)</code>.
+ * <p>
+ * The constraints of all the examples form one linear system over the reals, which is solved by Gauss-Jordan
+ * elimination over the integers, as the doubles of the examples are exact rationals.
+ * So a system is consistent exactly when the SMT solver would find it satisfiable, and rounding errors
+ * cannot be mistaken for solutions. Only the solution itself is rounded to doubles.
+ * The program over the variables is evaluated on doubles.
+ * <p>
+ * If the examples do not determine the hole, the free entries are set to zero, so a solution may fit the given
+ * examples only. Callers that want a general constant should hold out an example, as {@link MySynthesizer} does.
+ */
+public final class LinearSketchSolver {
+    private final List<Object[]> inputs = new ArrayList<>();
+    private final List<IMatrix<Double>> outputs = new ArrayList<>();
+    private final int hole;
+    private long queries;
+    private long solveNanos;
+
+    /**
+     * Creates a new solver for the given examples.
+     *
+     * @param inputs  The inputs of every example
+     * @param outputs The output of every example
+     * @throws IllegalArgumentException If the number of outputs is not the number of examples, or an entry is not finite
+     */
+    public LinearSketchSolver(List<? extends List<? extends IMatrix<Double>>> inputs, List<? extends IMatrix<Double>> outputs) {
+        if (inputs.size() != outputs.size()) {
+            throw new IllegalArgumentException("There must be an output for every example");
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one example");
+        }
+        this.hole = inputs.get(0).size();
+        for (int i = 0; i < inputs.size(); i++) {
+            inputs.get(i).forEach(LinearSketchSolver::checkFinite);
+            checkFinite(outputs.get(i));
+            this.inputs.add(inputs.get(i).toArray());
+            this.outputs.add(outputs.get(i));
+        }
+    }
+
+    private static void checkFinite(IMatrix<Double> matrix) {
+        for (int i = 0; i < matrix.getRows(); i++) {
+            for (int j = 0; j < matrix.getColumns(); j++) {
+                if (!Double.isFinite(matrix.get(i, j))) {
+                    throw new IllegalArgumentException("The entries must be finite");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given sketch can be solved by this solver.
+     *
+     * @param sketch The sketch
+     * @return Whether the hole appears linearly in the sketch
+     */
+    public boolean isLinear(AstNode<? extends IMatrix<?>> sketch) {
+        if (!(sketch instanceof MethodCallNode<?> call) || call.getArguments().size() != 1) {
+            return false;
+        }
+        if (!call.getMethod().equals("add") && !call.getMethod().equals("subtract") && !call.getMethod().equals("multiply")) {
+            return false;
+        }
+        AstNode<?> receiver = call.getReceiver();
+        AstNode<?> argument = call.getArguments().get(0);
+        return isHole(receiver) && !containsHole(argument) || isHole(argument) && !containsHole(receiver);
+    }
+
+    private boolean isHole(AstNode<?> node) {
+        return node instanceof VariableNode<?> variable && variable.getIndex() == hole;
+    }
+
+    private boolean containsHole(AstNode<?> node) {
+        if (isHole(node)) {
+            return true;
+        }
+        if (node instanceof MethodCallNode<?> call) {
+            return containsHole(call.getReceiver()) || call.getArguments().stream().anyMatch(this::containsHole);
+        }
+        return false;
+    }
+
+    /**
+     * Solves the given sketch.
+     *
+     * @param sketch The sketch, which must be linear
+     * @param shape  The shape of the hole
+     * @return A value of the hole for which the sketch fits all the examples, if there is one.
+     * The value is the closest double matrix to an exact solution, so it should be verified.
+     * @throws IllegalArgumentException If the sketch is not linear
+     */
+    public Optional<ConcreteMatrix> solve(AstNode<? extends IMatrix<?>> sketch, Shape shape) {
+        if (!isLinear(sketch)) {
+            throw new IllegalArgumentException("The sketch is not linear: " + sketch);
+        }
+        long start = System.nanoTime();
+        try {
+            MethodCallNode<?> call = (MethodCallNode<?>) sketch;
+            boolean holeFirst = isHole(call.getReceiver());
+            AstNode<?> operand = holeFirst ? call.getArguments().get(0) : call.getReceiver();
+            List<IMatrix<Double>> values = new ArrayList<>();
+            for (Object[] input : inputs) {
+                if (!(operand.evaluate(input) instanceof IMatrix<?> value)) {
+                    return Optional.empty();
+                }
+                @SuppressWarnings("unchecked")
+                IMatrix<Double> matrix = (IMatrix<Double>) value;
+                checkFinite(matrix);
+                values.add(matrix);
+            }
+            String method = call.getMethod();
+            // x + C = B gives C = B - x, x - C = B gives C = x - B, and C - x = B gives C = B + x
+            BigInteger[][] solution = method.equals("multiply")
+                    ? solveProduct(values, shape, holeFirst)
+                    : solveSum(values, shape, method.equals("subtract") && !holeFirst ? -1 : 1, method.equals("add") ? -1 : 1);
+            if (solution == null) {
+                return Optional.empty();
+            }
+            double[] entries = new double[(int) shape.size()];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = new BigDecimal(solution[i][0])
+                        .divide(new BigDecimal(solution[i][1]), MathContext.DECIMAL128).doubleValue();
+            }
+            return Optional.of(ConcreteMatrix.wrap(shape.rows(), shape.columns(), entries));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return Optional.empty(); // the dimensions do not match
+        } finally {
+            solveNanos += System.nanoTime() - start;
+            queries++;
+        }
+    }
+
+    /**
+     * Solves <code>outputSign * output + operandSign * operand</code> for the hole in every example,
+     * and returns the solution as numerators and denominators in row-major order, or null if the examples disagree.
+     */
+    private BigInteger[][] solveSum(List<IMatrix<Double>> values, Shape shape, int outputSign, int operandSign) {
+        BigDecimal[] solution = null;
+        for (int e = 0; e < values.size(); e++) {
+            IMatrix<Double> value = values.get(e);
+            IMatrix<Double> output = outputs.get(e);
+            if (!shape.equals(new Shape(value.getRows(), value.getColumns()))
+                    || !shape.equals(new Shape(output.getRows(), output.getColumns()))) {
+                return null;
+            }
+            BigDecimal[] entries = new BigDecimal[(int) shape.size()];
+            for (int i = 0; i < shape.rows(); i++) {
+                for (int j = 0; j < shape.columns(); j++) {
+                    BigDecimal sum = exact(output.get(i, j)).multiply(BigDecimal.valueOf(outputSign))
+                            .add(exact(value.get(i, j)).multiply(BigDecimal.valueOf(operandSign)));
+                    entries[i * shape.columns() + j] = sum;
+                }
+            }
+            if (solution == null) {
+                solution = entries;
+            } else {
+                for (int i = 0; i < entries.length; i++) {
+                    if (solution[i].compareTo(entries[i]) != 0) {
+                        return null;
+                    }
+                }
+            }
+        }
+        BigInteger[][] result = new BigInteger[solution.length][];
+        for (int i = 0; i < solution.length; i++) {
+            BigDecimal entry = solution[i].stripTrailingZeros();
+            result[i] = entry.scale() <= 0
+                    ? new BigInteger[]{entry.toBigIntegerExact(), BigInteger.ONE}
+                    : new BigInteger[]{entry.unscaledValue(), BigInteger.TEN.pow(entry.scale())};
+        }
+        return result;
+    }
+
+    /**
+     * Solves <code>operand * hole = output</code> for every example, or <code>hole * operand = output</code> if the
+     * hole is first, by transposing it. Returns the solution as numerators and denominators in row-major order,
+     * with the free entries set to zero, or null if there is none.
+     */
+    private BigInteger[][] solveProduct(List<IMatrix<Double>> values, Shape shape, boolean holeFirst) {
+        // The unknown of the system X * U = B, which is the transposed hole if the hole is first
+        int unknowns = holeFirst ? shape.columns() : shape.rows();
+        int right = holeFirst ? shape.rows() : shape.columns();
+        List<BigInteger[]> rows = new ArrayList<>();
+        for (int e = 0; e < values.size(); e++) {
+            IMatrix<Double> x = holeFirst ? values.get(e).transpose() : values.get(e);
+            IMatrix<Double> b = holeFirst ? outputs.get(e).transpose() : outputs.get(e);
+            if (x.getColumns() != unknowns || b.getColumns() != right || x.getRows() != b.getRows()) {
+                return null;
+            }
+            for (int i = 0; i < x.getRows(); i++) {
+                double[] row = new double[unknowns + right];
+                for (int j = 0; j < unknowns; j++) {
+                    row[j] = x.get(i, j);
+                }
+                for (int j = 0; j < right; j++) {
+                    row[unknowns + j] = b.get(i, j);
+                }
+                rows.add(integers(row));
+            }
+        }
+        BigInteger[][] system = rows.toArray(new BigInteger[0][]);
+        int[] pivots = new int[unknowns];
+        int rank = 0;
+        for (int column = 0; column < unknowns && rank < system.length; column++) {
+            int pivot = rank;
+            while (pivot < system.length && system[pivot][column].signum() == 0) {
+                pivot++;
+            }
+            if (pivot == system.length) {
+                continue;
+            }
+            BigInteger[] swap = system[pivot];
+            system[pivot] = system[rank];
+            system[rank] = swap;
+            for (int i = 0; i < system.length; i++) {
+                if (i != rank && system[i][column].signum() != 0) {
+                    eliminate(system[i], system[rank], column);
+                }
+            }
+            pivots[rank++] = column;
+        }
+        // The rows without a pivot must be all zeros
+        for (int i = rank; i < system.length; i++) {
+            for (int j = unknowns; j < unknowns + right; j++) {
+                if (system[i][j].signum() != 0) {
+                    return null;
+                }
+            }
+        }
+        BigInteger[][] result = new BigInteger[(int) shape.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new BigInteger[]{BigInteger.ZERO, BigInteger.ONE};
+        }
+        for (int r = 0; r < rank; r++) {
+            for (int j = 0; j < right; j++) {
+                // The entry (pivots[r], j) of the unknown
+                int index = holeFirst ? j * shape.columns() + pivots[r] : pivots[r] * shape.columns() + j;
+                result[index] = fraction(system[r][unknowns + j], system[r][pivots[r]]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets the entry of the given row in the given column to zero by subtracting a multiple of the pivot row,
+     * keeping the row integral and reduced.
+     */
+    private static void eliminate(BigInteger[] row, BigInteger[] pivot, int column) {
+        BigInteger factor = row[column];
+        BigInteger scale = pivot[column];
+        BigInteger gcd = BigInteger.ZERO;
+        for (int j = 0; j < row.length; j++) {
+            row[j] = row[j].multiply(scale).subtract(pivot[j].multiply(factor));
+            gcd = gcd.gcd(row[j]);
+        }
+        if (gcd.compareTo(BigInteger.ONE) > 0) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = row[j].divide(gcd);
+            }
+        }
+    }
+
+    /**
+     * Returns the given row multiplied by a power of ten, so that all of its entries are integers.
+     */
+    private static BigInteger[] integers(double[] row) {
+        BigDecimal[] entries = new BigDecimal[row.length];
+        int scale = 0;
+        for (int j = 0; j < row.length; j++) {
+            entries[j] = exact(row[j]).stripTrailingZeros();
+            scale = Math.max(scale, entries[j].scale());
+        }
+        BigInteger[] result = new BigInteger[row.length];
+        for (int j = 0; j < row.length; j++) {
+            result[j] = entries[j].setScale(scale).unscaledValue();
+        }
+        return result;
+    }
+
+    private static BigDecimal exact(double value) {
+        return new BigDecimal(value);
+    }
+
+    private static BigInteger[] fraction(BigInteger numerator, BigInteger denominator) {
+        BigInteger gcd = numerator.gcd(denominator);
+        if (denominator.signum() < 0) {
+            gcd = gcd.negate();
+        }
+        return new BigInteger[]{numerator.divide(gcd), denominator.divide(gcd)};
+    }
+
+    /**
+     * Returns the number of sketches solved so far.
+     *
+     * @return The number of sketches
+     */
+    public long getQueryCount() {
+        return queries;
+    }
+
+    /**
+     * Returns the total time spent solving sketches.
+     *
+     * @return The time in nanoseconds
+     */
+    public long getSolveNanos() {
+        return solveNanos;
+    }
+}
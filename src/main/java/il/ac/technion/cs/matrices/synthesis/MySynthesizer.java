@@ -0,0 +1,373 @@
+package il.ac.technion.cs.matrices.synthesis;
+
+import il.ac.technion.cs.matrices.ast.AstFactory;
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.ast.ClassConstantNode;
+import il.ac.technion.cs.matrices.ast.EvaluationCache;
+import il.ac.technion.cs.matrices.ast.MethodCallNode;
+import il.ac.technion.cs.matrices.ast.VariableNode;
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SolverContext;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A synthesizer that enumerates expressions by increasing depth with a {@link BottomUpEnumerator},
+ * and returns the first one that fits all the examples.
+ * <p>
+ * All nodes are interned by an {@link AstFactory}, one per call of {@link #enumerate}, {@link #enumerateLazily}
+ * or {@link #synthesize}, so the enumerated expressions form a DAG
+ * which shares all common subexpressions. While synthesizing, the value of every subexpression
+ * on every example is kept in an {@link EvaluationCache}, so checking a candidate built
+ * from previously checked subexpressions evaluates a single method call per example,
+ * and candidates which are observationally equivalent to previous ones are pruned.
+ * Only candidates whose shapes agree on all the examples are built, and if all the outputs
+ * have the same shape, candidates are also resized to it.
+ * <p>
+ * Candidates are checked in batches on a work-stealing pool, which stops as soon as one of them fits.
+ * Every candidate is checked against the examples with an {@link ExampleVerifier}, whose statistics are exposed
+ * by {@link #getExampleStatistics()}, and is evaluated on all of them, since the enumerator needs the values.
+ * The timeout interrupts the synthesizing thread, rather than being polled. If the caller interrupts it,
+ * the synthesis stops as well, and the interrupt is kept.
+ * <p>
+ * If no expression of depth at most {@value #SKETCH_DEPTH} fits, constant matrices are synthesized by solving
+ * sketches such as <code>var0.add(C)</code>, before enumerating deeper expressions. A solution must be
+ * determined by all the examples but one, and must also fit that one.
+ * Sketches in which the constant appears linearly are solved exactly in Java by a {@link LinearSketchSolver},
+ * and only the others use the SMT solver, if the native library of cvc5 is available.
+ */
+public class MySynthesizer implements ISynthesizer {
+    /**
+     * The capacity of the evaluation cache, in matrix entries.
+     */
+    private static final long CACHE_CAPACITY = 1L << 22;
+    /**
+     * The number of candidates checked in parallel at a time.
+     */
+    private static final int BATCH_SIZE = 256;
+    /**
+     * The depth up to which expressions are enumerated before sketches are solved.
+     */
+    private static final int SKETCH_DEPTH = 2;
+
+    private volatile ExampleVerifier lastVerifier;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The expressions are those of depth <i>at most</i> <code>depth</code>, ordered by depth.
+     *
+     * @throws IllegalArgumentException If the depth is negative or the number of variables is non-positive
+     */
+    @Override
+    public @NotNull List<AstNode<? extends IMatrix<?>>> enumerate(int depth, int numVariables) {
+        return enumerateLazily(depth, numVariables).collect(Collectors.toList());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The expressions are built as the stream is consumed, and those of depth <code>depth</code> are not kept,
+     * so only the shallower expressions are held in memory.
+     *
+     * @throws IllegalArgumentException If the depth is negative or the number of variables is non-positive
+     */
+    @Override
+    public @NotNull Stream<AstNode<? extends IMatrix<?>>> enumerateLazily(int depth, int numVariables) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("The depth must be non-negative");
+        }
+        BottomUpEnumerator enumerator = new BottomUpEnumerator(new AstFactory(), numVariables);
+        return Stream.concat(enumerator.getLevel(0).stream(), enumerator.stream(depth));
+    }
+
+    @Override
+    public @NotNull AstNode<? extends IMatrix<?>> synthesize(@NotNull Map<List<IMatrix<Double>>, IMatrix<Double>> examples) {
+        // The interrupt of the caller is kept, and is not mistaken for the alarm
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CannotSynthesizeException("The synthesis was interrupted");
+        }
+        try (Alarm alarm = new Alarm(TIMEOUT_MILLIS)) {
+            int numVariables = examples.keySet().iterator().next().size();
+            List<List<IMatrix<Double>>> exampleInputs = new ArrayList<>();
+            List<Object[]> inputs = new ArrayList<>();
+            List<IMatrix<Double>> outputs = new ArrayList<>();
+            examples.forEach((input, output) -> {
+                exampleInputs.add(input);
+                inputs.add(input.toArray());
+                outputs.add(output);
+            });
+            EvaluationCache cache = new EvaluationCache(inputs, CACHE_CAPACITY);
+            // A resize only helps if the shape of the output does not depend on the example
+            Set<Shape> outputShapes = new HashSet<>();
+            outputs.forEach(output -> outputShapes.add(new Shape(output.getRows(), output.getColumns())));
+            List<Shape> resizeShapes = outputShapes.size() == 1 ? List.copyOf(outputShapes) : List.of();
+            // A factory per job, so that its nodes are released with it
+            AstFactory factory = new AstFactory();
+            BottomUpEnumerator enumerator = new BottomUpEnumerator(factory, numVariables, cache, resizeShapes);
+            ExampleVerifier exampleVerifier = new ExampleVerifier(cache, outputs);
+            lastVerifier = exampleVerifier;
+            try (ParallelVerifier verifier = new ParallelVerifier(exampleVerifier, cache, Runtime.getRuntime().availableProcessors())) {
+                for (AstNode<? extends IMatrix<?>> variable : enumerator.getLevel(0)) {
+                    if (exampleVerifier.fits(variable)) {
+                        return variable;
+                    }
+                }
+                // Every batch of candidates is checked in parallel before the enumerator checks them for equivalence
+                enumerator.setBatchConsumer(BATCH_SIZE, verifier);
+                try {
+                    // A constant can fit few examples by chance, so shallow expressions are preferred over sketches
+                    boolean complete = true;
+                    while (complete && enumerator.getDepth() < SKETCH_DEPTH) {
+                        complete = enumerator.nextLevel(node -> !Thread.currentThread().isInterrupted());
+                    }
+                    if (complete) {
+                        AstNode<? extends IMatrix<?>> sketched = solveSketches(factory, exampleInputs, outputs, exampleVerifier, alarm);
+                        if (sketched != null) {
+                            return sketched;
+                        }
+                        Iterator<AstNode<? extends IMatrix<?>>> candidates = enumerator.stream(Integer.MAX_VALUE).iterator();
+                        while (!Thread.currentThread().isInterrupted() && candidates.hasNext()) {
+                            candidates.next();
+                        }
+                    }
+                } catch (CancellationException e) {
+                    // A candidate was found, or the alarm rang
+                }
+                if (verifier.getFound() != null) {
+                    return verifier.getFound();
+                }
+            }
+            if (alarm.rang()) {
+                throw new CannotSynthesizeException("No expression was found within " + TIMEOUT_MILLIS + " milliseconds");
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CannotSynthesizeException("The synthesis was interrupted");
+            }
+            // The enumeration ended, so every deeper expression is equivalent to a previous one
+            throw new CannotSynthesizeException("No expression fits the examples");
+        }
+    }
+
+    /**
+     * A program with a hole, which is the variable after the variables of the examples, and the shape of the hole.
+     */
+    private record Sketch(AstNode<? extends IMatrix<?>> program, Shape shape) {
+    }
+
+    /**
+     * Returns a program with a constant matrix that fits the examples, found by solving the sketches
+     * of {@link #sketches}, or null if there is none.
+     * The last example is held out: the sketches are solved on the other examples, and only if they have more
+     * scalar constraints than the hole has entries, and the solution must also fit the held-out example.
+     * So a constant that merely memorizes the examples is not returned.
+     * Linear sketches are solved by a {@link LinearSketchSolver}, and the others by a {@link SketchSolver},
+     * which is only created when needed, and is skipped if the native library of cvc5 is not available.
+     */
+    private static AstNode<? extends IMatrix<?>> solveSketches(AstFactory factory, List<List<IMatrix<Double>>> inputs,
+                                                               List<IMatrix<Double>> outputs, ExampleVerifier verifier,
+                                                               Alarm alarm) {
+        List<Sketch> sketches = sketches(factory, inputs, outputs);
+        if (sketches.isEmpty() || inputs.size() < 2) {
+            return null;
+        }
+        List<List<IMatrix<Double>>> solveInputs = inputs.subList(0, inputs.size() - 1);
+        List<IMatrix<Double>> solveOutputs = outputs.subList(0, outputs.size() - 1);
+        long constraints = solveOutputs.stream().mapToLong(output -> (long) output.getRows() * output.getColumns()).sum();
+        LinearSketchSolver linear;
+        try {
+            linear = new LinearSketchSolver(solveInputs, solveOutputs);
+        } catch (IllegalArgumentException e) {
+            return null; // an entry is not finite
+        }
+        // cvc5 cannot be interrupted, so the time that is left is split between its queries
+        long smtSketches = sketches.stream().filter(sketch -> !linear.isLinear(sketch.program())).count();
+        SolverContext context = null;
+        try {
+            SketchSolver smt = null;
+            boolean smtAvailable = true;
+            for (Sketch sketch : sketches) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                if (constraints <= sketch.shape().size()) {
+                    continue; // the examples do not determine the hole
+                }
+                Optional<ConcreteMatrix> value;
+                if (linear.isLinear(sketch.program())) {
+                    value = linear.solve(sketch.program(), sketch.shape());
+                } else {
+                    // Other jobs may use cvc5 at the same time
+                    synchronized (SolverContext.LOCK) {
+                        if (smt == null && smtAvailable) {
+                            try {
+                                context = new SolverContext(Math.max(1, alarm.getRemainingMillis() / smtSketches));
+                                smt = new SketchSolver(context, solveInputs, solveOutputs);
+                            } catch (LinkageError | IllegalArgumentException e) {
+                                // The native library of cvc5 is not available, or an entry cannot be converted
+                                smtAvailable = false;
+                            }
+                        }
+                        if (smt == null) {
+                            continue;
+                        }
+                        value = smt.solve(sketch.program(), sketch.shape());
+                    }
+                }
+                if (value.isPresent()) {
+                    AstNode<? extends IMatrix<?>> program = fill(factory, sketch.program(), inputs.get(0).size(), value.get());
+                    // The value was rounded to doubles, and the held-out example was not used to solve for it
+                    if (verifier.fits(program)) {
+                        return program;
+                    }
+                }
+            }
+        } finally {
+            if (context != null) {
+                synchronized (SolverContext.LOCK) {
+                    context.close();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the sketches of a variable plus a constant, and of a variable multiplied by a constant on either side,
+     * for which the shape of the constant does not depend on the example.
+     */
+    private static List<Sketch> sketches(AstFactory factory, List<List<IMatrix<Double>>> inputs, List<IMatrix<Double>> outputs) {
+        int numVariables = inputs.get(0).size();
+        AstNode<? extends IMatrix<?>> hole = factory.variable(numVariables);
+        int outputRows = uniform(outputs, IMatrix::getRows);
+        int outputColumns = uniform(outputs, IMatrix::getColumns);
+        List<Sketch> sketches = new ArrayList<>();
+        for (int v = 0; v < numVariables; v++) {
+            int index = v;
+            List<IMatrix<Double>> values = inputs.stream().map(input -> input.get(index)).collect(Collectors.toList());
+            AstNode<? extends IMatrix<?>> variable = factory.variable(v);
+            boolean sameRows = true;
+            boolean sameColumns = true;
+            for (int i = 0; i < outputs.size(); i++) {
+                sameRows &= values.get(i).getRows() == outputs.get(i).getRows();
+                sameColumns &= values.get(i).getColumns() == outputs.get(i).getColumns();
+            }
+            if (sameRows && sameColumns && outputRows > 0 && outputColumns > 0) {
+                sketches.add(new Sketch(factory.call("add", variable, hole), new Shape(outputRows, outputColumns)));
+            }
+            int rows = uniform(values, IMatrix::getRows);
+            int columns = uniform(values, IMatrix::getColumns);
+            if (sameRows && columns > 0 && outputColumns > 0) {
+                sketches.add(new Sketch(factory.call("multiply", variable, hole), new Shape(columns, outputColumns)));
+            }
+            if (sameColumns && rows > 0 && outputRows > 0) {
+                sketches.add(new Sketch(factory.call("multiply", hole, variable), new Shape(outputRows, rows)));
+            }
+        }
+        return sketches;
+    }
+
+    /**
+     * Returns the given dimension of all the given matrices, or -1 if it is not the same for all of them.
+     */
+    private static int uniform(List<IMatrix<Double>> matrices, ToIntFunction<IMatrix<Double>> dimension) {
+        int result = dimension.applyAsInt(matrices.get(0));
+        for (IMatrix<Double> matrix : matrices) {
+            if (dimension.applyAsInt(matrix) != result) {
+                return -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given sketch with its hole, the variable of the given index, replaced by the given constant.
+     */
+    private static <T> AstNode<T> fill(AstFactory factory, AstNode<T> sketch, int hole, ConcreteMatrix value) {
+        if (sketch instanceof VariableNode<T> variable && variable.getIndex() == hole) {
+            return factory.constant(ClassConstantNode.getConstantValue((T) value));
+        }
+        if (sketch instanceof MethodCallNode<T> call) {
+            AstNode<?>[] arguments = new AstNode<?>[call.getArguments().size()];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = fill(factory, call.getArguments().get(i), hole, value);
+            }
+            return factory.call(call.getMethod(), fill(factory, call.getReceiver(), hole, value), arguments);
+        }
+        return sketch;
+    }
+
+    /**
+     * Returns the statistics of every example of the last synthesis, for tuning.
+     *
+     * @return The statistics by the index of the example in the iteration order of the examples map,
+     * or an empty list if nothing was synthesized yet
+     */
+    public List<ExampleVerifier.Statistics> getExampleStatistics() {
+        ExampleVerifier verifier = lastVerifier;
+        return verifier == null ? List.of() : verifier.getStatistics();
+    }
+
+    /**
+     * Interrupts the thread that created it after a timeout, unless it is closed first.
+     * Closing it clears the interrupt it caused, if any.
+     */
+    private static final class Alarm implements AutoCloseable {
+        private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "synthesis-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private final Thread thread = Thread.currentThread();
+        private final ScheduledFuture<?> future;
+        private final long deadline;
+        private boolean closed;
+        private boolean rang;
+
+        Alarm(long millis) {
+            deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            future = TIMER.schedule(this::ring, millis, TimeUnit.MILLISECONDS);
+        }
+
+        long getRemainingMillis() {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+
+        private synchronized void ring() {
+            if (!closed) {
+                rang = true;
+                thread.interrupt();
+            }
+        }
+
+        synchronized boolean rang() {
+            return rang;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            future.cancel(false);
+            if (rang) {
+                Thread.interrupted();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package il.ac.technion.cs.matrices.synthesis;
+
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.ast.EvaluationCache;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Checks batches of candidates with an {@link ExampleVerifier} on a work-stealing pool.
+ * Every candidate is then evaluated on the examples it was not checked against, since
+ * the enumerator needs all its values, so the cache holds them afterwards.
+ * <p>
+ * Once a candidate fits all the examples, the other workers stop, and this verifier throws
+ * {@link CancellationException} to stop the enumeration that passes it the batches.
+ * It does the same if the thread passing the batches is interrupted while waiting for the workers.
+ */
+final class ParallelVerifier implements Consumer<List<AstNode<? extends IMatrix<?>>>>, AutoCloseable {
+    /**
+     * The number of candidates checked by a single task.
+     */
+    private static final int CHUNK_SIZE = 16;
+
+    private final ExampleVerifier verifier;
+    private final EvaluationCache cache;
+    private final ForkJoinPool pool;
+    private final AtomicReference<AstNode<? extends IMatrix<?>>> found = new AtomicReference<>();
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new verifier.
+     *
+     * @param verifier    The verifier to check the candidates with
+     * @param cache       The cache of the verifier
+     * @param parallelism The number of workers
+     */
+    ParallelVerifier(ExampleVerifier verifier, EvaluationCache cache, int parallelism) {
+        this.verifier = verifier;
+        this.cache = cache;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Returns the first candidate found that fits all the examples.
+     *
+     * @return The candidate, or null if none was found
+     */
+    AstNode<? extends IMatrix<?>> getFound() {
+        return found.get();
+    }
+
+    /**
+     * Checks the given candidates, and returns once all of them were checked.
+     *
+     * @param candidates The candidates
+     * @throws CancellationException If a fitting candidate was found, or the current thread was interrupted
+     */
+    @Override
+    public void accept(List<AstNode<? extends IMatrix<?>>> candidates) {
+        if (stopped || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("The verification was stopped");
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < candidates.size(); from += CHUNK_SIZE) {
+            List<AstNode<? extends IMatrix<?>>> chunk = candidates.subList(from, Math.min(from + CHUNK_SIZE, candidates.size()));
+            tasks.add(pool.submit(() -> check(chunk)));
+        }
+        try {
+            for (ForkJoinTask<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            stopped = true;
+            tasks.forEach(task -> task.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The verification was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw (RuntimeException) e.getCause();
+        }
+        if (found.get() != null) {
+            throw new CancellationException("A fitting candidate was found");
+        }
+    }
+
+    private void check(List<AstNode<? extends IMatrix<?>>> chunk) {
+        for (AstNode<? extends IMatrix<?>> candidate : chunk) {
+            if (stopped) {
+                return;
+            }
+            if (verifier.fits(candidate)) {
+                if (found.compareAndSet(null, candidate)) {
+                    stopped = true;
+                }
+                return;
+            }
+            try {
+                for (int i = 0; i < cache.getExampleCount(); i++) {
+                    cache.evaluate(candidate, i);
+                }
+            } catch (RuntimeException e) {
+                // the failure is cached as well
+            }
+        }
+    }
+
+    /**
+     * Stops the workers.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,23 @@
+package il.ac.technion.cs.matrices.synthesis;
+
+/**
+ * The dimensions of a matrix.
+ *
+ * @param rows    The number of rows
+ * @param columns The number of columns
+ */
+public record Shape(int rows, int columns) {
+    /**
+     * Returns the number of entries of a matrix of this shape.
+     *
+     * @return The number of entries
+     */
+    public long size() {
+        return (long) rows * columns;
+    }
+
+    @Override
+    public String toString() {
+        return rows + "x" + columns;
+    }
+}
@@ -0,0 +1,151 @@
+package il.ac.technion.cs.matrices.synthesis;
+
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.matrix.AbstractMatrix;
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SolverContext;
+import io.github.cvc5.CVC5ApiException;
+import io.github.cvc5.Pair;
+import io.github.cvc5.Result;
+import io.github.cvc5.Solver;
+import io.github.cvc5.Term;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Solves sketches for an unknown constant matrix with an incremental SMT solver.
+ * A sketch is a program over the variables of the examples and one more variable, the hole,
+ * whose index is the number of variables: for example, <code>var0.add(var1)</code> for one variable
+ * stands for <code>var0.add(C)</code>, where <code>C</code> is the unknown constant.
+ * <p>
+ * The examples are converted to constant terms once, and the fresh variables of a hole are declared
+ * once per shape, so they are shared by all the sketches. Every sketch is solved in its own
+ * <code>push</code>/<code>pop</code> scope, which asserts only its own constraints.
+ * The time of every query is recorded, and a query that exceeds the time limit of the context,
+ * see {@link SolverContext#SolverContext(long)}, has no solution.
+ */
+public final class SketchSolver {
+    private final SolverContext context;
+    private final List<AbstractMatrix[]> inputs = new ArrayList<>();
+    private final List<AbstractMatrix> outputs = new ArrayList<>();
+    private final Map<Shape, AbstractMatrix> holes = new HashMap<>();
+    private long queries;
+    private long solveNanos;
+    private long lastSolveNanos;
+
+    /**
+     * Creates a new solver for the given examples.
+     *
+     * @param context The context to solve in, which is used by this solver only
+     * @param inputs  The inputs of every example
+     * @param outputs The output of every example
+     * @throws IllegalArgumentException If the number of outputs is not the number of examples, or an entry is not finite
+     */
+    public SketchSolver(SolverContext context, List<? extends List<? extends IMatrix<Double>>> inputs, List<? extends IMatrix<Double>> outputs) {
+        if (inputs.size() != outputs.size()) {
+            throw new IllegalArgumentException("There must be an output for every example");
+        }
+        this.context = context;
+        for (int i = 0; i < inputs.size(); i++) {
+            AbstractMatrix[] variables = new AbstractMatrix[inputs.get(i).size() + 1];
+            for (int j = 0; j < variables.length - 1; j++) {
+                variables[j] = AbstractMatrix.of(context, inputs.get(i).get(j));
+            }
+            this.inputs.add(variables);
+            this.outputs.add(AbstractMatrix.of(context, outputs.get(i)));
+        }
+    }
+
+    /**
+     * Solves the given sketch.
+     *
+     * @param sketch The sketch
+     * @param shape  The shape of the hole
+     * @return A value of the hole for which the sketch fits all the examples, if there is one and it was found
+     * within the time limit. The value is the closest double matrix to the exact solution, so it should be verified.
+     * @throws IllegalStateException If the solver fails
+     */
+    public Optional<ConcreteMatrix> solve(AstNode<? extends IMatrix<?>> sketch, Shape shape) {
+        AbstractMatrix hole = holes.computeIfAbsent(shape,
+                key -> AbstractMatrix.fresh(context, key.rows(), key.columns(), "c" + holes.size()));
+        Solver solver = context.getSolver();
+        try {
+            solver.push();
+        } catch (CVC5ApiException e) {
+            throw new IllegalStateException("The solver cannot open a scope", e);
+        }
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                Object[] variables = inputs.get(i).clone();
+                variables[variables.length - 1] = hole;
+                AbstractMatrix value;
+                try {
+                    value = (AbstractMatrix) sketch.evaluate(variables);
+                    for (Term constraint : value.equate(outputs.get(i))) {
+                        solver.assertFormula(constraint);
+                    }
+                } catch (IllegalArgumentException e) {
+                    return Optional.empty(); // the dimensions do not match
+                }
+            }
+            long start = System.nanoTime();
+            Result result = solver.checkSat();
+            lastSolveNanos = System.nanoTime() - start;
+            solveNanos += lastSolveNanos;
+            queries++;
+            if (!result.isSat()) {
+                return Optional.empty();
+            }
+            double[] entries = new double[(int) shape.size()];
+            for (int i = 0; i < shape.rows(); i++) {
+                for (int j = 0; j < shape.columns(); j++) {
+                    Pair<BigInteger, BigInteger> rational = solver.getValue(hole.get(i, j)).getRealValue();
+                    entries[i * shape.columns() + j] = new BigDecimal(rational.first)
+                            .divide(new BigDecimal(rational.second), MathContext.DECIMAL128).doubleValue();
+                }
+            }
+            return Optional.of(ConcreteMatrix.wrap(shape.rows(), shape.columns(), entries));
+        } finally {
+            try {
+                solver.pop();
+            } catch (CVC5ApiException e) {
+                throw new IllegalStateException("The solver cannot close a scope", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of queries made so far.
+     *
+     * @return The number of queries
+     */
+    public long getQueryCount() {
+        return queries;
+    }
+
+    /**
+     * Returns the total time spent solving queries.
+     *
+     * @return The time in nanoseconds
+     */
+    public long getSolveNanos() {
+        return solveNanos;
+    }
+
+    /**
+     * Returns the time spent solving the last query.
+     *
+     * @return The time in nanoseconds, or 0 if there was no query
+     */
+    public long getLastSolveNanos() {
+        return lastSolveNanos;
+    }
+}
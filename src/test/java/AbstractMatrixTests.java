@@ -0,0 +1,206 @@
+import il.ac.technion.cs.matrices.ast.AstFactory;
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.matrix.AbstractMatrix;
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SolverContext;
+import io.github.cvc5.Pair;
+import io.github.cvc5.Term;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * These tests need the native library of cvc5, and are skipped if it cannot be loaded, so they validate nothing
+ * on a platform without it. If the system property <code>il.ac.technion.cs.matrices.requireCvc5</code> is set
+ * (see <code>-PrequireCvc5</code> in the build script), they fail instead.
+ */
+public class AbstractMatrixTests {
+    private static final String[] METHODS = {"add", "subtract", "multiply", "transpose", "negate"};
+
+    private static SolverContext openContext() {
+        SolverContext context;
+        try {
+            context = new SolverContext();
+        } catch (LinkageError e) {
+            if (Boolean.getBoolean("il.ac.technion.cs.matrices.requireCvc5")) {
+                throw new AssertionError("The native library of cvc5 is required but cannot be loaded", e);
+            }
+            context = null;
+        }
+        assumeTrue(context != null, "The native library of cvc5 is not available");
+        return context;
+    }
+
+    @Test
+    public void negateIsNegation() {
+        try (SolverContext context = openContext()) {
+            AbstractMatrix constant = AbstractMatrix.of(context, new ConcreteMatrix(new double[][]{{1, -2.5}}));
+            assert constant.negate().equals(AbstractMatrix.of(context, new ConcreteMatrix(new double[][]{{-1, 2.5}})));
+            AbstractMatrix x = AbstractMatrix.fresh(context, 2, 2, "x");
+            assert !x.negate().equals(x);
+            assert x.negate().negate().equals(x);
+            IMatrix<Term> difference = x.subtract(x);
+            for (int i = 0; i < 2; i++) {
+                for (int j = 0; j < 2; j++) {
+                    assert context.getSolver().simplify(difference.get(i, j)).getRealOrIntegerValueSign() == 0;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void foldingKeepsTermsSmall() {
+        try (SolverContext context = openContext()) {
+            AbstractMatrix x = AbstractMatrix.fresh(context, 3, 3, "x");
+            AbstractMatrix identity = AbstractMatrix.identity(context, 3);
+            AbstractMatrix zeros = AbstractMatrix.zeros(context, 3, 3);
+            assert x.getTermSize() == 9;
+            assert x.getTermDepth() == 0;
+            assert identity.multiply(x).equals(x);
+            assert x.multiply(identity).equals(x);
+            assert x.add(zeros).equals(x);
+            assert zeros.multiply(x).getTermSize() == 1;
+            assert identity.multiply(identity).equals(identity);
+            assert identity.add(identity).equals(identity.multiply(context.getTermManager().mkReal(2)));
+            // Every entry of a product is at most a single sum of products of variables,
+            // which cvc5 may represent even more compactly
+            AbstractMatrix product = x.multiply(x);
+            assert product.getTermDepth() <= 2;
+            // 9 variables, 27 products of two, and 9 sums of three
+            assert product.getTermSize() <= 9 + 27 * 3 + 9 * 4;
+            // A sum of sums shares them rather than copying their summands
+            assert product.add(product).getTermDepth() <= 3;
+            assert product.add(product).getTermSize() <= product.getTermSize() + 9 * 3;
+            // So a chain of additions grows linearly
+            AbstractMatrix y = AbstractMatrix.fresh(context, 3, 3, "y");
+            AbstractMatrix chain = x;
+            for (int k = 1; k <= 100; k++) {
+                chain = chain.add(y);
+                assert chain.getTermSize() <= 18 + 9 * 3 * k : k;
+            }
+            assert x.getContext() == context;
+            assertThrows(IllegalArgumentException.class, () -> x.add(AbstractMatrix.fresh(context, 3, 2, "y")));
+        }
+    }
+
+    @Test
+    public void contextLifecycle() {
+        SolverContext context = openContext();
+        AbstractMatrix x = AbstractMatrix.fresh(context, 2, 2, "x");
+        try (SolverContext other = new SolverContext()) {
+            AbstractMatrix y = AbstractMatrix.fresh(other, 2, 2, "y");
+            assertThrows(IllegalArgumentException.class, () -> x.add(y));
+            assertThrows(IllegalArgumentException.class, () -> y.multiply(x));
+        }
+        assert !context.isClosed();
+        context.close();
+        assert context.isClosed();
+        assertThrows(IllegalStateException.class, context::getSolver);
+        assertThrows(IllegalStateException.class, context::getTermManager);
+        context.close();
+        // The default context is created again once it is closed
+        SolverContext current = SolverContext.current();
+        assert SolverContext.current() == current;
+        current.close();
+        SolverContext next = SolverContext.current();
+        assert next != current && !next.isClosed();
+        next.close();
+    }
+
+    /**
+     * Evaluates random programs on concrete matrices and on abstract ones, both of constants and of variables
+     * that are substituted afterwards, and checks that they agree exactly.
+     */
+    @Test
+    public void agreesWithConcrete() {
+        try (SolverContext context = openContext()) {
+            Random random = new Random(236651);
+            AstFactory factory = new AstFactory();
+            int[][] shapes = {{2, 2}, {2, 3}, {3, 2}};
+            AbstractMatrix[] symbols = new AbstractMatrix[shapes.length + 1];
+            for (int v = 0; v < shapes.length; v++) {
+                symbols[v] = AbstractMatrix.fresh(context, shapes[v][0], shapes[v][1], "v" + v);
+            }
+            // The last variable is a constant identity, so that folding is exercised on variables too
+            symbols[shapes.length] = AbstractMatrix.identity(context, 2);
+            int checked = 0;
+            for (int trial = 0; trial < 300; trial++) {
+                AstNode<?> program = randomProgram(random, factory, 1 + random.nextInt(3), symbols.length);
+                ConcreteMatrix[] inputs = new ConcreteMatrix[symbols.length];
+                AbstractMatrix[] constants = new AbstractMatrix[symbols.length];
+                for (int v = 0; v < shapes.length; v++) {
+                    inputs[v] = randomMatrix(random, shapes[v][0], shapes[v][1]);
+                    constants[v] = AbstractMatrix.of(context, inputs[v]);
+                }
+                inputs[shapes.length] = ConcreteMatrix.identity(2);
+                constants[shapes.length] = symbols[shapes.length];
+                IMatrix<Double> expected;
+                try {
+                    expected = (IMatrix<Double>) program.evaluate((Object[]) inputs);
+                } catch (IllegalArgumentException e) {
+                    continue; // the dimensions do not match
+                }
+                assertAgrees(context, program, expected, (IMatrix<Term>) program.evaluate((Object[]) constants),
+                        new Term[0], new Term[0]);
+                List<Term> variables = new ArrayList<>();
+                List<Term> values = new ArrayList<>();
+                for (int v = 0; v < shapes.length; v++) {
+                    for (int i = 0; i < shapes[v][0]; i++) {
+                        for (int j = 0; j < shapes[v][1]; j++) {
+                            variables.add(symbols[v].get(i, j));
+                            values.add(constants[v].get(i, j));
+                        }
+                    }
+                }
+                assertAgrees(context, program, expected, (IMatrix<Term>) program.evaluate((Object[]) symbols),
+                        variables.toArray(new Term[0]), values.toArray(new Term[0]));
+                checked++;
+            }
+            assert checked >= 100 : "Only " + checked + " programs were checked";
+        }
+    }
+
+    private static AstNode<?> randomProgram(Random random, AstFactory factory, int depth, int variables) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return factory.variable(random.nextInt(variables));
+        }
+        String method = METHODS[random.nextInt(METHODS.length)];
+        AstNode<?> receiver = randomProgram(random, factory, depth - 1, variables);
+        return switch (method) {
+            case "transpose", "negate" -> factory.call(method, receiver);
+            default -> factory.call(method, receiver, randomProgram(random, factory, depth - 1, variables));
+        };
+    }
+
+    private static ConcreteMatrix randomMatrix(Random random, int rows, int columns) {
+        double[] entries = new double[rows * columns];
+        for (int i = 0; i < entries.length; i++) {
+            // Halves are exact, and zeros and ones are common
+            entries[i] = (random.nextInt(9) - 4) / 2.0;
+        }
+        return ConcreteMatrix.wrap(rows, columns, entries);
+    }
+
+    private static void assertAgrees(SolverContext context, AstNode<?> program, IMatrix<Double> expected,
+                                     IMatrix<Term> actual, Term[] variables, Term[] values) {
+        assert actual.getRows() == expected.getRows() && actual.getColumns() == expected.getColumns() : program;
+        for (int i = 0; i < expected.getRows(); i++) {
+            for (int j = 0; j < expected.getColumns(); j++) {
+                Term term = context.getSolver().simplify(actual.get(i, j).substitute(variables, values));
+                assert term.isRealValue() : program + " gives " + term;
+                Pair<BigInteger, BigInteger> value = term.getRealValue();
+                BigDecimal exact = new BigDecimal(expected.get(i, j));
+                assert exact.multiply(new BigDecimal(value.second)).compareTo(new BigDecimal(value.first)) == 0
+                        : program + " gives " + term + " instead of " + expected.get(i, j);
+            }
+        }
+    }
+}
@@ -1,11 +1,16 @@
+import il.ac.technion.cs.matrices.ast.AstCompiler;
+import il.ac.technion.cs.matrices.ast.AstFactory;
 import il.ac.technion.cs.matrices.ast.AstNode;
 import il.ac.technion.cs.matrices.ast.ClassConstantNode;
+import il.ac.technion.cs.matrices.ast.CompiledProgram;
+import il.ac.technion.cs.matrices.ast.EvaluationCache;
 import il.ac.technion.cs.matrices.ast.MethodCallNode;
 import il.ac.technion.cs.matrices.ast.VariableNode;
 // Uncomment this when you're ready to implement the SMT extension:
 //import il.ac.technion.cs.matrices.matrix.AbstractMatrix;
 import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
 import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SparseMatrix;
 import io.github.cvc5.Term;
 import org.junit.jupiter.api.Test;
 
@@ -44,6 +49,122 @@ public class AstTests {
         assertThrows(RuntimeException.class, node::evaluate);
     }
 
+    @Test
+    public void testMethodCallDispatch() {
+        MethodCallNode<IMatrix<Double>> subtract = new MethodCallNode<>("subtract", new VariableNode<>(0), new VariableNode<>(1));
+        ConcreteMatrix matrix = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        SparseMatrix sparse = SparseMatrix.identity(2);
+        // The same node, with different receiver and argument classes
+        for (int i = 0; i < 3; i++) {
+            assert subtract.evaluate(matrix, sparse).equals(matrix.subtract(sparse));
+            assert subtract.evaluate(sparse, matrix).equals(sparse.subtract(matrix));
+            assert subtract.evaluate(sparse, sparse).equals(SparseMatrix.zeros(2, 2));
+        }
+        MethodCallNode<IMatrix<Double>> pow = new MethodCallNode<>("pow", new VariableNode<>(0), new ClassConstantNode<>(clazz -> 3));
+        assert pow.evaluate(matrix).equals(matrix.pow(3));
+        assert pow.apply(sparse, 2).equals(sparse);
+        assert pow.getMethod().equals("pow");
+        assert pow.getArguments().size() == 1;
+        assert new MethodCallNode<>("identity", new VariableNode<>(0), new ClassConstantNode<>(clazz -> 2))
+                .evaluate(matrix).equals(ConcreteMatrix.identity(2));
+        MethodCallNode<IMatrix<Double>> missing = new MethodCallNode<>("frobnicate", new VariableNode<>(0));
+        assertThrows(RuntimeException.class, () -> missing.evaluate(matrix));
+        assertThrows(RuntimeException.class, () -> missing.evaluate(matrix));
+        assertThrows(IllegalArgumentException.class, () -> subtract.evaluate(matrix, new ConcreteMatrix(3, 3)));
+    }
+
+    @Test
+    public void testCompiler() {
+        ClassConstantNode.ClassValue<IMatrix<?>> identity = ClassConstantNode.getStaticMethodValue("identity", 3);
+        AstNode<IMatrix<?>> polynomial = new MethodCallNode<>("add",
+                new MethodCallNode<IMatrix<?>>("multiply", new VariableNode(0), new VariableNode(1)),
+                new ClassConstantNode<>(identity));
+        AstNode<IMatrix<?>> mixed = new MethodCallNode<>("transpose",
+                new MethodCallNode<IMatrix<?>>("subtract", polynomial, new VariableNode(0)));
+        ConcreteMatrix a = new ConcreteMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}, {7, 8, 9}});
+        ConcreteMatrix b = a.transpose().multiply(2.0);
+        for (AstNode<IMatrix<?>> node : java.util.List.of(polynomial, mixed)) {
+            CompiledProgram<IMatrix<?>> program = AstCompiler.compile(node, ConcreteMatrix.class);
+            assert program.isCompiled();
+            assert program.getSource() == node;
+            assert program.toString().equals(node.toString());
+            for (int i = 0; i < 3; i++) {
+                assert program.evaluate(a, b).equals(node.evaluate(a, b));
+            }
+            // Variables of another class are interpreted
+            SparseMatrix sparse = SparseMatrix.of(a);
+            assert program.evaluate(sparse, sparse).equals(node.evaluate(sparse, sparse));
+            assertThrows(RuntimeException.class, program::evaluate);
+        }
+        CompiledProgram<IMatrix<?>> missing = AstCompiler.compile(
+                new MethodCallNode<>("frobnicate", new VariableNode<>(0)), ConcreteMatrix.class);
+        assert !missing.isCompiled();
+        assertThrows(RuntimeException.class, () -> missing.evaluate(a));
+        CompiledProgram<IMatrix<?>> mismatched = AstCompiler.compile(polynomial, ConcreteMatrix.class);
+        assertThrows(IllegalArgumentException.class, () -> mismatched.evaluate(a, new ConcreteMatrix(2, 2)));
+    }
+
+    @Test
+    public void testHashConsing() {
+        AstFactory factory = new AstFactory();
+        AstNode<?> product = factory.call("multiply", factory.variable(0), factory.variable(1));
+        assert factory.call("multiply", factory.variable(0), factory.variable(1)) == product;
+        assert factory.call("add", product, product) == factory.call("add", product, product);
+        assert factory.size() == 4;
+        // Structurally equal trees, built without the factory, are equal and intern to the same node
+        AstNode<?> unshared = new MethodCallNode<>("add",
+                new MethodCallNode<IMatrix<?>>("multiply", new VariableNode<>(0), new VariableNode<>(1)),
+                new MethodCallNode<IMatrix<?>>("multiply", new VariableNode<>(0), new VariableNode<>(1)));
+        assert unshared.equals(factory.call("add", product, product));
+        assert unshared.hashCode() == factory.call("add", product, product).hashCode();
+        assert factory.intern(unshared) == factory.call("add", product, product);
+        assert !product.equals(factory.call("multiply", factory.variable(1), factory.variable(0)));
+        assert !product.equals(factory.call("add", factory.variable(0), factory.variable(1)));
+        assert factory.constant(ClassConstantNode.getStaticMethodValue("identity", 3))
+                == factory.constant(ClassConstantNode.getStaticMethodValue("identity", 3));
+        assert !ClassConstantNode.getStaticMethodValue("identity", 3).equals(ClassConstantNode.getStaticMethodValue("identity", 2));
+        assert new VariableNode<>(2).equals(new VariableNode<>(2));
+        assert !new VariableNode<>(2).equals(new VariableNode<>(1));
+    }
+
+    @Test
+    public void testEvaluationCache() {
+        AstFactory factory = new AstFactory();
+        ConcreteMatrix a = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        ConcreteMatrix b = ConcreteMatrix.identity(2).multiply(2.0);
+        EvaluationCache cache = new EvaluationCache(java.util.List.of(new Object[]{a, b}, new Object[]{b, a}), 100);
+        AstNode<?> product = factory.call("multiply", factory.variable(0), factory.variable(1));
+        AstNode<?> sum = factory.call("add", product, factory.variable(0));
+        AstNode<?> difference = factory.call("subtract", product, factory.variable(1));
+        assert cache.getExampleCount() == 2;
+        for (int example = 0; example < 2; example++) {
+            Object[] variables = example == 0 ? new Object[]{a, b} : new Object[]{b, a};
+            assert cache.evaluate(sum, example).equals(sum.evaluate(variables));
+            assert cache.evaluate(difference, example).equals(difference.evaluate(variables));
+        }
+        // The product is evaluated once per example, and reused by the difference
+        assert cache.getMisses() == 6;
+        assert cache.getHits() == 2;
+        assert cache.evaluate(sum, 1).equals(b.multiply(a).add(b));
+        assert cache.getHits() == 3;
+        assert cache.getWeight() == 6 * 4;
+        // Failures are cached and rethrown
+        AstNode<?> mismatched = factory.call("add", factory.variable(0), factory.call("resize", factory.variable(1),
+                factory.constant(clazz -> 1), factory.constant(clazz -> 4)));
+        assertThrows(IllegalArgumentException.class, () -> cache.evaluate(mismatched, 0));
+        assertThrows(IllegalArgumentException.class, () -> cache.evaluate(mismatched, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> cache.evaluate(sum, 2));
+
+        // The least recently used values are evicted
+        EvaluationCache small = new EvaluationCache(java.util.List.<Object[]>of(new Object[]{a, b}), 8);
+        small.evaluate(sum, 0);
+        assert small.size() == 2;
+        small.evaluate(difference, 0);
+        assert small.getWeight() <= 8;
+        assert small.size() == 2;
+        assertThrows(IllegalArgumentException.class, () -> new EvaluationCache(java.util.List.of(), 0));
+    }
+
     @Test
     public void testPolynomial() {
         try {
@@ -1,5 +1,7 @@
 import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.ElementKernels;
 import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.MatrixParallelism;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -42,6 +44,33 @@ public class ConcreteMatrixTests {
         assert matrix.get(0, 0) == 1;
     }
 
+    @Test
+    public void flatConstructorCopies_wrapShares() {
+        double[] array = {1, 2, 3, 4, 5, 6};
+        ConcreteMatrix copied = new ConcreteMatrix(2, 3, array);
+        ConcreteMatrix wrapped = ConcreteMatrix.wrap(2, 3, array);
+        assert copied.equals(new ConcreteMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}}));
+        assert wrapped.equals(copied);
+        array[0] = 0;
+        assert copied.get(0, 0) == 1;
+        assert wrapped.get(0, 0) == 0;
+        assertThrows(IllegalArgumentException.class, () -> new ConcreteMatrix(2, 2, array));
+        assertThrows(IllegalArgumentException.class, () -> ConcreteMatrix.wrap(0, 6, array));
+    }
+
+    @Test
+    public void toArray_asBuffer() {
+        ConcreteMatrix matrix = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        double[] array = matrix.toArray();
+        assert java.util.Arrays.equals(array, new double[]{1, 2, 3, 4});
+        array[0] = 0;
+        assert matrix.get(0, 0) == 1;
+        java.nio.DoubleBuffer buffer = matrix.asBuffer();
+        assert buffer.isReadOnly();
+        assert buffer.remaining() == 4;
+        assert buffer.get(2) == 3;
+    }
+
     @Test
     public void emptyConstructor_getRows_getCols() {
         ConcreteMatrix matrix = new ConcreteMatrix(2, 3);
@@ -144,6 +173,138 @@ public class ConcreteMatrixTests {
         assert transposed.get(2, 1) == 6;
     }
 
+    @Test
+    public void chainedViewsMatchEagerCopies() {
+        java.util.Random random = new java.util.Random(236651);
+        double[][] expected = new double[6][10];
+        for (double[] row : expected) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextInt(100);
+            }
+        }
+        ConcreteMatrix matrix = new ConcreteMatrix(expected);
+        for (int step = 0; step < 40; step++) {
+            int rows = expected.length;
+            int columns = expected[0].length;
+            double[][] next;
+            switch (random.nextInt(4)) {
+                case 0 -> {
+                    if (rows == 1) {
+                        continue;
+                    }
+                    int row = random.nextInt(rows);
+                    next = new double[rows - 1][];
+                    for (int i = 0; i < rows - 1; i++) {
+                        next[i] = expected[i < row ? i : i + 1].clone();
+                    }
+                    matrix = matrix.dropRow(row);
+                }
+                case 1 -> {
+                    if (columns == 1) {
+                        continue;
+                    }
+                    int column = random.nextInt(columns);
+                    next = new double[rows][columns - 1];
+                    for (int i = 0; i < rows; i++) {
+                        for (int j = 0; j < columns - 1; j++) {
+                            next[i][j] = expected[i][j < column ? j : j + 1];
+                        }
+                    }
+                    matrix = matrix.dropColumn(column);
+                }
+                case 2 -> {
+                    next = new double[columns][rows];
+                    for (int i = 0; i < rows; i++) {
+                        for (int j = 0; j < columns; j++) {
+                            next[j][i] = expected[i][j];
+                        }
+                    }
+                    matrix = matrix.transpose();
+                }
+                default -> {
+                    next = new double[columns][rows];
+                    for (int k = 0; k < rows * columns; k++) {
+                        next[k / rows][k % rows] = expected[k / columns][k % columns];
+                    }
+                    matrix = matrix.resize(columns, rows);
+                }
+            }
+            expected = next;
+            assert matrix.getRows() == expected.length;
+            assert matrix.getColumns() == expected[0].length;
+            for (int i = 0; i < expected.length; i++) {
+                for (int j = 0; j < expected[0].length; j++) {
+                    assert matrix.get(i, j) == expected[i][j];
+                }
+            }
+            if (step % 7 == 0) {
+                assert matrix.equals(new ConcreteMatrix(expected)); // materializes part of the chain
+            }
+        }
+        assert matrix.add(matrix).equals(new ConcreteMatrix(expected).multiply(2.0));
+    }
+
+    @Test
+    public void exceptAtIsPersistent() {
+        java.util.Random random = new java.util.Random(236651);
+        double[][] expected = new double[7][9];
+        ConcreteMatrix matrix = new ConcreteMatrix(7, 9);
+        java.util.List<ConcreteMatrix> versions = new java.util.ArrayList<>();
+        java.util.List<double[][]> expectedVersions = new java.util.ArrayList<>();
+        for (int step = 0; step < 100; step++) {
+            int row = random.nextInt(7);
+            int column = random.nextInt(9);
+            double value = random.nextInt(100);
+            expected = java.util.Arrays.stream(expected).map(double[]::clone).toArray(double[][]::new);
+            expected[row][column] = value;
+            matrix = step % 10 == 0 ? matrix.transpose().transpose().exceptAt(row, column, value) : matrix.exceptAt(row, column, value);
+            versions.add(matrix);
+            expectedVersions.add(expected);
+        }
+        for (int k = 0; k < versions.size(); k++) {
+            for (int i = 0; i < 7; i++) {
+                for (int j = 0; j < 9; j++) {
+                    assert versions.get(k).get(i, j) == expectedVersions.get(k)[i][j];
+                }
+            }
+            assert versions.get(k).equals(new ConcreteMatrix(expectedVersions.get(k)));
+        }
+    }
+
+    @Test
+    public void batchExceptAt() {
+        ConcreteMatrix matrix = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        ConcreteMatrix patched = matrix.exceptAt(new int[]{1, 0, 1}, new int[]{1, 0, 1}, new double[]{7, 5, 8});
+        assert patched.equals(new ConcreteMatrix(new double[][]{{5, 2}, {3, 8}}));
+        assert matrix.equals(new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}}));
+        assert patched.exceptAt(new int[]{0}, new int[]{1}, java.util.List.of(6.0))
+                .equals(new ConcreteMatrix(new double[][]{{5, 6}, {3, 8}}));
+        assert patched.exceptAt(new int[0], new int[0], new double[0]).equals(patched);
+        ConcreteMatrix large = new ConcreteMatrix(10, 10);
+        int[] rows = new int[100];
+        int[] columns = new int[100];
+        double[] values = new double[100];
+        for (int k = 0; k < 100; k++) {
+            rows[k] = k / 10;
+            columns[k] = k % 10;
+            values[k] = k;
+        }
+        ConcreteMatrix filled = large.exceptAt(rows, columns, values);
+        assert filled.get(4, 2) == 42;
+        assert filled.equals(large.resize(1, 100).exceptAt(new int[100], indices(100), values).resize(10, 10));
+        assertThrows(IllegalArgumentException.class, () -> matrix.exceptAt(new int[]{0}, new int[]{0, 1}, new double[]{1}));
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.exceptAt(new int[]{2}, new int[]{0}, new double[]{1}));
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.exceptAt(new int[]{0}, new int[]{-1}, new double[]{1}));
+    }
+
+    private static int[] indices(int count) {
+        int[] indices = new int[count];
+        for (int k = 0; k < count; k++) {
+            indices[k] = k;
+        }
+        return indices;
+    }
+
     @Test
     public void multiplyTest() {
         ConcreteMatrix matrix = new ConcreteMatrix(2, 3);
@@ -169,6 +330,114 @@ public class ConcreteMatrixTests {
         assert result.get(1, 1) == 154;
     }
 
+    @Test
+    public void multiplyAcrossBlocksMatchesNaive() {
+        // dimensions straddle the kernel's tile sizes
+        java.util.Random random = new java.util.Random(236651);
+        double[][] left = new double[70][300];
+        double[][] right = new double[300][260];
+        for (double[] row : left) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextDouble() - 0.5;
+            }
+        }
+        for (double[] row : right) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = random.nextDouble() - 0.5;
+            }
+        }
+        ConcreteMatrix result = new ConcreteMatrix(left).multiply(new ConcreteMatrix(right));
+        assert result.getRows() == 70;
+        assert result.getColumns() == 260;
+        for (int i = 0; i < 70; i++) {
+            for (int j = 0; j < 260; j++) {
+                double sum = 0;
+                for (int k = 0; k < 300; k++) {
+                    sum += left[i][k] * right[k][j];
+                }
+                // the SIMD backend uses fused multiply-adds, see ElementKernels
+                assert ElementKernels.active() == ElementKernels.vector().orElse(null)
+                        ? Math.abs(result.get(i, j) - sum) <= 1e-12
+                        : result.get(i, j) == sum;
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        java.util.Random random = new java.util.Random(236651);
+        double[] entries = new double[97 * 97];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = random.nextDouble() - 0.5;
+        }
+        ConcreteMatrix matrix = ConcreteMatrix.wrap(97, 97, entries).add(ConcreteMatrix.identity(97).multiply(10.0));
+        java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+        java.util.concurrent.ForkJoinPool previousPool = MatrixParallelism.getPool();
+        long previousThreshold = MatrixParallelism.getThreshold();
+        try {
+            MatrixParallelism.setThreshold(Long.MAX_VALUE);
+            ConcreteMatrix[] sequential = {matrix.multiply(matrix), matrix.add(matrix), matrix.multiply(3.0),
+                    matrix.negate(), matrix.transpose(), matrix.invert()};
+            MatrixParallelism.setPool(pool);
+            MatrixParallelism.setThreshold(64);
+            ConcreteMatrix[] parallel = {matrix.multiply(matrix), matrix.add(matrix), matrix.multiply(3.0),
+                    matrix.negate(), matrix.transpose(), matrix.invert()};
+            for (int i = 0; i < sequential.length; i++) {
+                assert sequential[i].equals(parallel[i]);
+            }
+        } finally {
+            MatrixParallelism.setPool(previousPool);
+            MatrixParallelism.setThreshold(previousThreshold);
+            pool.shutdown();
+        }
+        assertThrows(IllegalArgumentException.class, () -> MatrixParallelism.setThreshold(0));
+        assertThrows(IllegalArgumentException.class, () -> MatrixParallelism.setPool(null));
+    }
+
+    @Test
+    public void vectorBackendMatchesScalar() {
+        if (ElementKernels.vector().isEmpty()) {
+            return; // the Vector API is not available in this JVM
+        }
+        ElementKernels scalar = ElementKernels.scalar();
+        ElementKernels vector = ElementKernels.vector().get();
+        java.util.Random random = new java.util.Random(236651);
+        double[] a = new double[1003];
+        double[] b = new double[1003];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextGaussian() * 1e3;
+            b[i] = random.nextGaussian() * 1e-3;
+        }
+        a[5] = -0.0;
+        a[6] = Double.NaN;
+        a[7] = Double.NEGATIVE_INFINITY;
+        // odd bounds exercise both the vector loop and the scalar tail
+        double[] expected = new double[a.length];
+        double[] actual = new double[a.length];
+        scalar.add(a, b, expected, 3, 1001);
+        vector.add(a, b, actual, 3, 1001);
+        assert java.util.Arrays.equals(expected, actual);
+        scalar.subtract(a, b, expected, 2, 1003);
+        vector.subtract(a, b, actual, 2, 1003);
+        assert java.util.Arrays.equals(expected, actual);
+        scalar.negate(a, expected, 1, 1002);
+        vector.negate(a, actual, 1, 1002);
+        assert java.util.Arrays.equals(expected, actual);
+        scalar.scale(a, -1.7, expected, 0, 999);
+        vector.scale(a, -1.7, actual, 0, 999);
+        assert java.util.Arrays.equals(expected, actual);
+
+        double[] expectedSum = b.clone();
+        double[] actualSum = b.clone();
+        for (int p = 0; p < 50; p++) {
+            scalar.multiplyAdd(a[p + 10], b, p, expectedSum, 3, 950);
+            vector.multiplyAdd(a[p + 10], b, p, actualSum, 3, 950);
+        }
+        for (int i = 0; i < expectedSum.length; i++) {
+            assert Math.abs(expectedSum[i] - actualSum[i]) <= 1e-9 * Math.max(1, Math.abs(expectedSum[i]));
+        }
+    }
+
     @Test
     public void addTest() {
         ConcreteMatrix matrix = new ConcreteMatrix(2, 3);
@@ -245,11 +514,62 @@ public class ConcreteMatrixTests {
         ConcreteMatrix inverted = matrix.invert();
         assert inverted.getRows() == 2;
         assert inverted.getColumns() == 2;
-        assert inverted.get(0, 0) == -2;
-        assert inverted.get(0, 1) == 1;
-        assert inverted.get(1, 0) == 1.5;
-        assert inverted.get(1, 1) == -0.5;
-        assert matrix.multiply(inverted).equals(ConcreteMatrix.identity(2));
+        // Pivoting may round the entries in their last bits
+        assertClose(inverted, new ConcreteMatrix(new double[][]{{-2, 1}, {1.5, -0.5}}));
+        assertClose(matrix.multiply(inverted), ConcreteMatrix.identity(2));
+    }
+
+    private static void assertClose(IMatrix<Double> actual, IMatrix<Double> expected) {
+        assert actual.getRows() == expected.getRows() && actual.getColumns() == expected.getColumns();
+        for (int i = 0; i < expected.getRows(); i++) {
+            for (int j = 0; j < expected.getColumns(); j++) {
+                assert Math.abs(actual.get(i, j) - expected.get(i, j)) <= 1e-12 * Math.max(1, Math.abs(expected.get(i, j)))
+                        : actual + " is not close to " + expected;
+            }
+        }
+    }
+
+    @Test
+    public void luDecomposition() {
+        ConcreteMatrix matrix = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        assert matrix.decompose() == matrix.decompose();
+        assert Math.abs(matrix.decompose().determinant() + 2) <= 1e-12;
+        assertClose(matrix.decompose().solve(new ConcreteMatrix(new double[][]{{5}, {11}})),
+                new ConcreteMatrix(new double[][]{{1}, {2}}));
+        // Needs a row swap, which unpivoted elimination could not do
+        ConcreteMatrix swap = new ConcreteMatrix(new double[][]{{0, 1}, {1, 0}});
+        assert swap.invert().equals(swap);
+        assert swap.decompose().determinant() == -1;
+        ConcreteMatrix singular = new ConcreteMatrix(new double[][]{{1, 2}, {2, 4}});
+        assert singular.decompose().isSingular();
+        assert singular.decompose().determinant() == 0;
+        assertThrows(IllegalArgumentException.class, singular::invert);
+        assertThrows(IllegalArgumentException.class, () -> matrix.decompose().solve(new ConcreteMatrix(3, 1)));
+        assertThrows(IllegalArgumentException.class, () -> new ConcreteMatrix(2, 3).decompose());
+
+        // Large enough to span several panels
+        java.util.Random random = new java.util.Random(236651);
+        int n = 150;
+        double[] entries = new double[n * n];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = random.nextDouble() - 0.5;
+        }
+        ConcreteMatrix large = ConcreteMatrix.wrap(n, n, entries);
+        ConcreteMatrix product = large.multiply(large.invert());
+        ConcreteMatrix identity = ConcreteMatrix.identity(n);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                assert Math.abs(product.get(i, j) - identity.get(i, j)) < 1e-9;
+            }
+        }
+        ConcreteMatrix b = ConcreteMatrix.wrap(n, 1, java.util.Arrays.copyOf(entries, n));
+        IMatrix<Double> residual = large.multiply(large.decompose().solve(b)).subtract(b);
+        for (int i = 0; i < n; i++) {
+            assert Math.abs(residual.get(i, 0)) < 1e-9;
+        }
+        ConcreteMatrix scaled = large.multiply(2.0);
+        double ratio = scaled.decompose().determinant() / large.decompose().determinant();
+        assert Math.abs(ratio / Math.pow(2, n) - 1) < 1e-9;
     }
 
     @Test
@@ -292,6 +612,19 @@ public class ConcreteMatrixTests {
         assert squared.get(1, 0) == 15;
         assert squared.get(1, 1) == 22;
         assert matrix.pow(0).equals(ConcreteMatrix.identity(2));
+        assert matrix.pow(1).equals(matrix);
+    }
+
+    @Test
+    public void powMatchesRepeatedMultiplication() {
+        ConcreteMatrix fibonacci = new ConcreteMatrix(new double[][]{{1, 1}, {1, 0}});
+        ConcreteMatrix power = fibonacci;
+        for (int exponent = 1; exponent <= 40; exponent++) {
+            assert fibonacci.pow(exponent).equals(power);
+            power = power.multiply(fibonacci);
+        }
+        assert fibonacci.pow(40).get(0, 1) == 102334155;
+        assert fibonacci.get(0, 0) == 1 && fibonacci.get(1, 1) == 0; // the receiver is untouched
     }
 
     @Test
@@ -322,6 +655,55 @@ public class ConcreteMatrixTests {
         assert matrix.hashCode() == matrix.hashCode(); // make sure it doesn't throw an exception and is deterministic
     }
 
+    @Test
+    public void cachedHashCodeAndProbes() {
+        ConcreteMatrix matrix = new ConcreteMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        ConcreteMatrix same = new ConcreteMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        ConcreteMatrix last = same.exceptAt(1, 2, 7.0);
+        assert matrix.hashCode() == same.hashCode();
+        assert matrix.equals(same);
+        assert !matrix.equals(last);
+        last.hashCode();
+        assert !matrix.equals(last);
+        assert !last.equals(matrix);
+        // Small integers differ in the high bits of their hash codes only, but their matrices still hash apart
+        java.util.Set<Integer> hashes = new java.util.HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            hashes.add(new ConcreteMatrix(new double[][]{{i % 10, i / 10}}).hashCode());
+        }
+        assert hashes.size() == 100;
+    }
+
+    @Test
+    public void multiplyMayEqual() {
+        java.util.Random random = new java.util.Random(236651);
+        for (int trial = 0; trial < 20; trial++) {
+            int n = 1 + random.nextInt(40);
+            int k = 1 + random.nextInt(40);
+            int m = 1 + random.nextInt(40);
+            double[] left = new double[n * k];
+            double[] right = new double[k * m];
+            for (int i = 0; i < left.length; i++) {
+                left[i] = random.nextGaussian() * 1e3;
+            }
+            for (int i = 0; i < right.length; i++) {
+                right[i] = random.nextGaussian() / 7;
+            }
+            ConcreteMatrix a = ConcreteMatrix.wrap(n, k, left);
+            ConcreteMatrix b = ConcreteMatrix.wrap(k, m, right);
+            ConcreteMatrix product = a.multiply(b);
+            // Never rejects the actual product, despite rounding
+            assert a.multiplyMayEqual(b, product);
+            // A single wrong entry is always caught, since every sign is non-zero
+            int row = random.nextInt(n);
+            int column = random.nextInt(m);
+            assert !a.multiplyMayEqual(b, product.exceptAt(row, column, product.get(row, column) + 1));
+            assert !a.multiplyMayEqual(b, new ConcreteMatrix(n + 1, m));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> new ConcreteMatrix(2, 3).multiplyMayEqual(new ConcreteMatrix(2, 3), new ConcreteMatrix(2, 3)));
+    }
+
     @Test
     public void identityLike_zerosLike() {
         ConcreteMatrix matrix = new ConcreteMatrix(2, 2);
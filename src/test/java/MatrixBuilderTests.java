@@ -0,0 +1,62 @@
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.MatrixBuilder;
+import il.ac.technion.cs.matrices.matrix.SparseMatrix;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MatrixBuilderTests {
+    private static ConcreteMatrix random(Random random, int rows, int columns) {
+        double[] entries = new double[rows * columns];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = random.nextInt(19) - 9;
+        }
+        return ConcreteMatrix.wrap(rows, columns, entries);
+    }
+
+    @Test
+    public void matchesMatrixOperations() {
+        Random random = new Random(236651);
+        ConcreteMatrix a = random(random, 70, 90);
+        ConcreteMatrix b = random(random, 90, 80);
+        ConcreteMatrix c = random(random, 70, 80);
+        ConcreteMatrix d = random(random, 70, 80);
+        ConcreteMatrix built = new MatrixBuilder(70, 80).multiplyAdd(a, b).add(c).add(d).build();
+        assert built.equals(a.multiply(b).add(c).add(d));
+        ConcreteMatrix scaled = MatrixBuilder.of(c).subtract(d).scale(2.5).build();
+        assert scaled.equals(c.subtract(d).multiply(2.5));
+        // C += A * B accumulates onto the existing entries
+        assert MatrixBuilder.of(c).multiplyAdd(a, SparseMatrix.of(b)).build().equals(a.multiply(b).add(c));
+        assert MatrixBuilder.of(a.transpose()).build().equals(a.transpose());
+    }
+
+    @Test
+    public void getSetAndBuild() {
+        MatrixBuilder builder = new MatrixBuilder(2, 3);
+        assert builder.getRows() == 2;
+        assert builder.getColumns() == 3;
+        builder.set(0, 1, 2).set(1, 2, 6);
+        assert builder.get(0, 1) == 2;
+        assert builder.get(1, 1) == 0;
+        ConcreteMatrix matrix = builder.build();
+        assert matrix.equals(new ConcreteMatrix(new double[][]{{0, 2, 0}, {0, 0, 6}}));
+        assertThrows(IllegalStateException.class, builder::build);
+        assertThrows(IllegalStateException.class, () -> builder.set(0, 0, 1));
+        assertThrows(IllegalStateException.class, () -> builder.scale(2));
+    }
+
+    @Test
+    public void everythingThrowsWhatItShould() {
+        MatrixBuilder builder = new MatrixBuilder(2, 3);
+        assertThrows(IllegalArgumentException.class, () -> new MatrixBuilder(0, 3));
+        assertThrows(IllegalArgumentException.class, () -> new MatrixBuilder(2, -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> builder.get(2, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> builder.set(0, 3, 1));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(new ConcreteMatrix(3, 2)));
+        assertThrows(IllegalArgumentException.class, () -> builder.subtract(new ConcreteMatrix(2, 2)));
+        assertThrows(IllegalArgumentException.class, () -> builder.multiplyAdd(new ConcreteMatrix(2, 2), new ConcreteMatrix(3, 3)));
+        assertThrows(IllegalArgumentException.class, () -> builder.multiplyAdd(new ConcreteMatrix(2, 2), new ConcreteMatrix(2, 2)));
+    }
+}
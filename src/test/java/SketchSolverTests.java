@@ -0,0 +1,77 @@
+import il.ac.technion.cs.matrices.ast.AstFactory;
+import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SolverContext;
+import il.ac.technion.cs.matrices.synthesis.LinearSketchSolver;
+import il.ac.technion.cs.matrices.synthesis.Shape;
+import il.ac.technion.cs.matrices.synthesis.SketchSolver;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * These tests need the native library of cvc5, and are skipped if it cannot be loaded, like {@link AbstractMatrixTests}.
+ */
+public class SketchSolverTests {
+    private static SolverContext openContext(long timeLimitMillis) {
+        SolverContext context;
+        try {
+            context = new SolverContext(timeLimitMillis);
+        } catch (LinkageError e) {
+            if (Boolean.getBoolean("il.ac.technion.cs.matrices.requireCvc5")) {
+                throw new AssertionError("The native library of cvc5 is required but cannot be loaded", e);
+            }
+            context = null;
+        }
+        assumeTrue(context != null, "The native library of cvc5 is not available");
+        return context;
+    }
+
+    @Test
+    public void solvesNonLinearSketches() {
+        IMatrix<Double> a = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        IMatrix<Double> b = new ConcreteMatrix(new double[][]{{0, 1}, {5, 2}});
+        IMatrix<Double> constant = new ConcreteMatrix(new double[][]{{1, 2}, {0, 1}});
+        List<List<IMatrix<Double>>> inputs = List.of(List.of(a), List.of(b));
+        List<IMatrix<Double>> outputs = List.of(a.add(constant.multiply(constant)), b.add(constant.multiply(constant)));
+        AstFactory factory = new AstFactory();
+        AstNode<? extends IMatrix<?>> hole = factory.variable(1);
+        // var0.add(C.multiply(C))
+        AstNode<? extends IMatrix<?>> sketch = factory.call("add", factory.variable(0), factory.call("multiply", hole, hole));
+        assert !new LinearSketchSolver(inputs, outputs).isLinear(sketch);
+        try (SolverContext context = openContext(0)) {
+            SketchSolver solver = new SketchSolver(context, inputs, outputs);
+            Optional<ConcreteMatrix> value = solver.solve(sketch, new Shape(2, 2));
+            assert value.isPresent();
+            // The square root is not unique, so only its square is checked
+            assert value.get().multiply(value.get()).equals(constant.multiply(constant)) : value.get();
+            assert solver.getQueryCount() == 1;
+            assertThrows(IllegalArgumentException.class, () -> new SolverContext(-1));
+        }
+    }
+
+    @Test
+    public void respectsTimeLimit() {
+        IMatrix<Double> a = new ConcreteMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}, {7, 8, 10}});
+        // A cubic system of nine unknowns, which the solver may not decide within the limit
+        IMatrix<Double> square = new ConcreteMatrix(new double[][]{{1, 4, 9}, {16, 25, 36}, {49, 64, 100}});
+        AstFactory factory = new AstFactory();
+        AstNode<? extends IMatrix<?>> hole = factory.variable(1);
+        // C.multiply(var0).multiply(C).multiply(C)
+        AstNode<? extends IMatrix<?>> sketch = factory.call("multiply",
+                factory.call("multiply", factory.call("multiply", hole, factory.variable(0)), hole), hole);
+        try (SolverContext context = openContext(100)) {
+            SketchSolver solver = new SketchSolver(context, List.of(List.of(a), List.of(a.transpose())),
+                    List.of(square, square.transpose().negate()));
+            long start = System.currentTimeMillis();
+            solver.solve(sketch, new Shape(3, 3));
+            assert System.currentTimeMillis() - start < 5000;
+            assert solver.getQueryCount() == 1;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
+import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.matrix.SparseMatrix;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class SparseMatrixTests {
+    private static ConcreteMatrix randomSparseDense(Random random, int rows, int columns, double density) {
+        double[] entries = new double[rows * columns];
+        for (int i = 0; i < entries.length; i++) {
+            if (random.nextDouble() < density) {
+                entries[i] = random.nextInt(19) - 9;
+            }
+        }
+        return ConcreteMatrix.wrap(rows, columns, entries);
+    }
+
+    @Test
+    public void identityIsSmall() {
+        SparseMatrix identity = SparseMatrix.identity(10000);
+        assert identity.getRows() == 10000;
+        assert identity.getColumns() == 10000;
+        assert identity.getNonZeros() == 10000;
+        assert identity.get(1234, 1234) == 1;
+        assert identity.get(1234, 4321) == 0;
+        assert identity.multiply(identity).equals(identity);
+        assert identity.transpose().equals(identity);
+    }
+
+    @Test
+    public void equalsAndHashCodeAgreeWithConcrete() {
+        ConcreteMatrix dense = new ConcreteMatrix(new double[][]{{1, 0, 2}, {0, 0, 0}, {0, -3, 0}});
+        SparseMatrix sparse = SparseMatrix.of(dense);
+        assert sparse.getNonZeros() == 3;
+        assert sparse.equals(dense);
+        assert dense.equals(sparse);
+        assert sparse.hashCode() == dense.hashCode();
+        assert sparse.toString().equals(dense.toString());
+        assert sparse.toDense().equals(dense);
+        ConcreteMatrix negativeZero = new ConcreteMatrix(2, 2).exceptAt(0, 1, -0.0);
+        assert negativeZero.equals(new ConcreteMatrix(2, 2));
+        assert negativeZero.hashCode() == new ConcreteMatrix(2, 2).hashCode();
+        assert SparseMatrix.of(negativeZero).equals(SparseMatrix.zeros(2, 2));
+        assert !sparse.equals(dense.exceptAt(1, 1, 5.0));
+        assert !sparse.equals(SparseMatrix.zeros(3, 3));
+        assert !sparse.equals(new ConcreteMatrix(3, 2));
+        assert !sparse.equals(null);
+        assert SparseMatrix.zeros(2, 3).equals(ConcreteMatrix.zeros(2, 3));
+        assert SparseMatrix.identity(3).equals(ConcreteMatrix.identity(3));
+    }
+
+    @Test
+    public void fromCoordinatesSumsDuplicates() {
+        SparseMatrix matrix = SparseMatrix.fromCoordinates(2, 3,
+                new int[]{1, 0, 1, 0, 0},
+                new int[]{2, 1, 2, 0, 2},
+                new double[]{4, 2, 1, 1, 0});
+        assert matrix.equals(new ConcreteMatrix(new double[][]{{1, 2, 0}, {0, 0, 5}}));
+        assert matrix.getNonZeros() == 3;
+        assert SparseMatrix.fromCoordinates(2, 2, new int[]{0, 0}, new int[]{1, 1}, new double[]{1, -1}).getNonZeros() == 0;
+    }
+
+    @Test
+    public void exceptAtInsertsAndRemoves() {
+        SparseMatrix matrix = new SparseMatrix(2, 2);
+        matrix = matrix.exceptAt(1, 1, 4.0);
+        matrix = matrix.exceptAt(0, 1, 2.0);
+        matrix = matrix.exceptAt(1, 0, 3.0);
+        matrix = matrix.exceptAt(0, 0, 1.0);
+        assert matrix.equals(new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}}));
+        matrix = matrix.exceptAt(0, 1, 0.0);
+        assert matrix.getNonZeros() == 3;
+        assert matrix.equals(new ConcreteMatrix(new double[][]{{1, 0}, {3, 4}}));
+        matrix = matrix.exceptAt(1, 0, 7.0);
+        assert matrix.get(1, 0) == 7;
+    }
+
+    @Test
+    public void operationsMatchConcrete() {
+        Random random = new Random(236651);
+        for (int trial = 0; trial < 20; trial++) {
+            int n = 1 + random.nextInt(8);
+            int k = 1 + random.nextInt(8);
+            int m = 1 + random.nextInt(8);
+            ConcreteMatrix a = randomSparseDense(random, n, k, 0.3);
+            ConcreteMatrix b = randomSparseDense(random, k, m, 0.3);
+            ConcreteMatrix c = randomSparseDense(random, n, k, 0.3);
+            SparseMatrix sa = SparseMatrix.of(a);
+            SparseMatrix sb = SparseMatrix.of(b);
+            SparseMatrix sc = SparseMatrix.of(c);
+            ConcreteMatrix product = a.multiply(b);
+            assert sa.multiply(sb).equals(product);
+            assert sa.multiply((IMatrix<Double>) b).equals(product);
+            assert a.multiply(sb).equals(product);
+            assert sa.add(sc).equals(a.add(c));
+            assert sa.add((IMatrix<Double>) c).equals(a.add(c));
+            assert a.add(sc).equals(a.add(c));
+            assert sa.subtract(sc).equals(a.subtract(c));
+            assert sa.negate().equals(a.negate());
+            assert sa.multiply(2.5).equals(a.multiply(2.5));
+            assert sa.multiply(0.0).getNonZeros() == 0;
+            assert sa.transpose().equals(a.transpose());
+            assert sa.resize(k, n).equals(a.resize(k, n));
+            assert sa.resize(1, n * k).equals(a.resize(1, n * k));
+            if (n > 1) {
+                int row = random.nextInt(n);
+                assert sa.dropRow(row).equals(a.dropRow(row));
+            }
+            if (k > 1) {
+                int column = random.nextInt(k);
+                assert sa.dropColumn(column).equals(a.dropColumn(column));
+            }
+        }
+    }
+
+    @Test
+    public void powAndIdentityLike() {
+        SparseMatrix fibonacci = SparseMatrix.of(new ConcreteMatrix(new double[][]{{1, 1}, {1, 0}}));
+        assert fibonacci.pow(20).equals(new ConcreteMatrix(new double[][]{{1, 1}, {1, 0}}).pow(20));
+        assert fibonacci.pow(0).equals(ConcreteMatrix.identity(2));
+        assert fibonacci.identityLike().equals(SparseMatrix.identity(2));
+        assert fibonacci.zerosLike().getNonZeros() == 0;
+    }
+
+    @Test
+    public void everythingThrowsWhatItShould() {
+        SparseMatrix matrix = new SparseMatrix(2, 3);
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.get(2, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.get(0, -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.exceptAt(0, 3, 1.0));
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.dropRow(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.dropColumn(-1));
+        assertThrows(IllegalArgumentException.class, () -> new SparseMatrix(0, 3));
+        assertThrows(IllegalArgumentException.class, () -> SparseMatrix.identity(0));
+        assertThrows(IllegalArgumentException.class, () -> matrix.add(new SparseMatrix(3, 2)));
+        assertThrows(IllegalArgumentException.class, () -> matrix.add(new ConcreteMatrix(3, 2)));
+        assertThrows(IllegalArgumentException.class, () -> matrix.multiply(new SparseMatrix(2, 3)));
+        assertThrows(IllegalArgumentException.class, () -> matrix.multiply(new ConcreteMatrix(2, 3)));
+        assertThrows(IllegalArgumentException.class, () -> matrix.resize(4, 2));
+        assertThrows(IllegalArgumentException.class, () -> matrix.pow(2));
+        assertThrows(UnsupportedOperationException.class, matrix::identityLike);
+        assertThrows(IllegalArgumentException.class,
+                () -> SparseMatrix.fromCoordinates(2, 2, new int[]{0}, new int[]{0, 1}, new double[]{1}));
+        assertThrows(IndexOutOfBoundsException.class,
+                () -> SparseMatrix.fromCoordinates(2, 2, new int[]{2}, new int[]{0}, new double[]{1}));
+    }
+}
@@ -1,11 +1,25 @@
+import il.ac.technion.cs.matrices.ast.AstFactory;
 import il.ac.technion.cs.matrices.ast.AstNode;
+import il.ac.technion.cs.matrices.ast.EvaluationCache;
+import il.ac.technion.cs.matrices.ast.MethodCallNode;
 import il.ac.technion.cs.matrices.matrix.ConcreteMatrix;
 import il.ac.technion.cs.matrices.matrix.IMatrix;
+import il.ac.technion.cs.matrices.synthesis.BottomUpEnumerator;
+import il.ac.technion.cs.matrices.synthesis.CannotSynthesizeException;
+import il.ac.technion.cs.matrices.synthesis.ExampleVerifier;
+import il.ac.technion.cs.matrices.synthesis.ISynthesizer;
+import il.ac.technion.cs.matrices.synthesis.LinearSketchSolver;
 import il.ac.technion.cs.matrices.synthesis.MySynthesizer;
+import il.ac.technion.cs.matrices.synthesis.Shape;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class SynthesizerTests {
     public static void main(String[] args) {
@@ -18,6 +32,146 @@ public class SynthesizerTests {
         MySynthesizer synthesizer = new MySynthesizer();
         assert synthesizer.enumerate(0, 1).size() == 1;
         // TODO You should add more tests here
+        assert synthesizer.enumerate(0, 3).size() == 3;
+        // var0, and transpose, add, subtract and multiply of var0 with itself
+        assert synthesizer.enumerate(1, 1).size() == 5;
+        // 4 transposes of the previous depth, and 3 binary methods of 24 pairs that are not both variables
+        assert synthesizer.enumerate(2, 1).size() == 5 + 4 + 3 * 24;
+        // Common subexpressions are shared
+        List<AstNode<? extends IMatrix<?>>> expressions = synthesizer.enumerate(2, 2);
+        assert expressions.stream().distinct().count() == expressions.size();
+        // The deepest expressions are not interned, but their subexpressions are
+        AstNode<?> receiver = ((MethodCallNode<?>) expressions.get(expressions.size() - 1)).getReceiver();
+        assert expressions.stream().anyMatch(expression -> expression == receiver);
+        // Every call has its own factory, so nothing is shared between calls
+        AstNode<? extends IMatrix<?>> last = synthesizer.enumerate(2, 2).get(expressions.size() - 1);
+        assert last.equals(expressions.get(expressions.size() - 1));
+        assert ((MethodCallNode<?>) last).getReceiver() != receiver;
+        assertThrows(IllegalArgumentException.class, () -> synthesizer.enumerate(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> synthesizer.enumerate(1, 0));
+    }
+
+    @Test
+    public void testLazyEnumeration() {
+        MySynthesizer synthesizer = new MySynthesizer();
+        assert synthesizer.enumerateLazily(2, 2).collect(Collectors.toList()).equals(synthesizer.enumerate(2, 2));
+        // Materializing depth 6 would exhaust the heap
+        assert synthesizer.enumerateLazily(6, 2).skip(1000).findFirst().isPresent();
+        assert synthesizer.enumerateLazily(0, 2).count() == 2;
+        assertThrows(IllegalArgumentException.class, () -> synthesizer.enumerateLazily(-1, 1));
+        BottomUpEnumerator enumerator = new BottomUpEnumerator(new AstFactory(), 1);
+        assert enumerator.stream(2).count() == 4 + 4 + 3 * 24;
+        // Levels before the last are kept
+        assert enumerator.getDepth() == 1;
+        assert enumerator.getLevel(1).size() == 4;
+        assertThrows(IllegalStateException.class, () -> enumerator.nextLevel(candidate -> true));
+        // Batches are passed before the candidates are returned
+        BottomUpEnumerator batched = new BottomUpEnumerator(new AstFactory(), 1);
+        List<Integer> batches = new ArrayList<>();
+        batched.setBatchConsumer(3, batch -> batches.add(batch.size()));
+        assert batched.stream(1).count() == 4;
+        assert batches.equals(List.of(3, 1));
+        assertThrows(IllegalArgumentException.class, () -> batched.setBatchConsumer(0, batch -> {
+        }));
+    }
+
+    @Test
+    public void testObservationalEquivalence() {
+        IMatrix<Double> identity = ConcreteMatrix.identity(3);
+        EvaluationCache cache = new EvaluationCache(List.<Object[]>of(new Object[]{identity, identity}), 1 << 20);
+        BottomUpEnumerator enumerator = new BottomUpEnumerator(new AstFactory(), 2, cache);
+        // var1 is equivalent to var0
+        assert enumerator.getLevel(0).size() == 1;
+        enumerator.nextLevel(candidate -> true);
+        // var0.transpose() and var0.multiply(var0) are equivalent to var0
+        assert enumerator.getLevel(1).size() == 2;
+        assert enumerator.getPruned() == 3;
+        // Without examples nothing is pruned
+        BottomUpEnumerator all = new BottomUpEnumerator(new AstFactory(), 2);
+        all.nextLevel(candidate -> true);
+        assert all.getLevel(1).size() == 2 + 3 * 4;
+        assert all.getPruned() == 0;
+        assertThrows(IllegalArgumentException.class, () -> new BottomUpEnumerator(new AstFactory(), 0));
+    }
+
+    @Test
+    public void testShapeDirectedEnumeration() {
+        IMatrix<Double> row = new ConcreteMatrix(new double[][]{{1, 2, 3}});
+        IMatrix<Double> square = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        EvaluationCache cache = new EvaluationCache(List.<Object[]>of(new Object[]{row, square}), 1 << 20);
+        BottomUpEnumerator enumerator = new BottomUpEnumerator(new AstFactory(), 2, cache, List.of(new Shape(3, 1)));
+        enumerator.nextLevel(candidate -> true);
+        // var0^T, var1^T, the sum and difference of each variable with itself, and var1 * var1
+        assert enumerator.getLevel(1).size() == 7;
+        // var0 resized to 3x1 is equivalent to var0^T, and var1 cannot be resized to 3x1
+        assert enumerator.getPruned() == 1;
+        enumerator.nextLevel(candidate -> true);
+        // Ill-shaped candidates are never built
+        for (int depth = 0; depth <= enumerator.getDepth(); depth++) {
+            for (AstNode<? extends IMatrix<?>> expression : enumerator.getLevel(depth)) {
+                cache.evaluate(expression, 0);
+            }
+        }
+        enumerator.nextLevel(candidate -> false);
+        assertThrows(IllegalStateException.class, () -> enumerator.nextLevel(candidate -> true));
+    }
+
+    @Test
+    public void testSynthesisWithResize() {
+        MySynthesizer synthesizer = new MySynthesizer();
+        IMatrix<Double> mat1 = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        IMatrix<Double> mat2 = new ConcreteMatrix(new double[][]{{0, -1}, {5, 2}});
+        Map<List<IMatrix<Double>>, IMatrix<Double>> examples = Map.of(
+                List.of(mat1), mat1.add(mat1).resize(1, 4),
+                List.of(mat2), mat2.add(mat2).resize(1, 4)
+        );
+        AstNode<? extends IMatrix<?>> result = synthesizer.synthesize(examples);
+        assert result.evaluate(mat1).equals(mat1.add(mat1).resize(1, 4));
+        assert result.evaluate(mat2).equals(mat2.add(mat2).resize(1, 4));
+    }
+
+    @Test
+    public void testExampleOrder() {
+        IMatrix<Double> large = new ConcreteMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}, {7, 8, 9}});
+        IMatrix<Double> small = new ConcreteMatrix(new double[][]{{5}});
+        IMatrix<Double> medium = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        EvaluationCache cache = new EvaluationCache(List.of(new Object[]{large}, new Object[]{small}, new Object[]{medium}), 1 << 20);
+        ExampleVerifier verifier = new ExampleVerifier(cache, List.of(large.add(large), small, medium));
+        // Smaller outputs first
+        assert Arrays.equals(verifier.getOrder(), new int[]{1, 2, 0});
+        AstNode<? extends IMatrix<?>> variable = new AstFactory().variable(0);
+        for (int i = 0; i < 1024; i++) {
+            assert !verifier.fits(variable);
+        }
+        // Only the large example rejects var0, so it is checked first
+        assert verifier.getOrder()[0] == 0;
+        ExampleVerifier.Statistics statistics = verifier.getStatistics().get(0);
+        assert statistics.checks() == 1024 && statistics.rejections() == 1024 && statistics.rejectionRate() == 1;
+        assert !verifier.fits(variable);
+        assert verifier.getStatistics().get(1).checks() == 1024;
+        assert verifier.getStatistics().get(1).rejections() == 0;
+        assertThrows(IllegalArgumentException.class, () -> new ExampleVerifier(cache, List.of(small)));
+        MySynthesizer synthesizer = new MySynthesizer();
+        assert synthesizer.getExampleStatistics().isEmpty();
+        synthesizer.synthesize(Map.of(List.of(medium), medium.transpose()));
+        assert synthesizer.getExampleStatistics().get(0).checks() > 0;
+    }
+
+    @Test
+    public void testSynthesisDepth4() {
+        MySynthesizer synthesizer = new MySynthesizer();
+        IMatrix<Double> mat1 = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        IMatrix<Double> mat2 = new ConcreteMatrix(new double[][]{{0, 1, 2}, {5, -2, 1}, {1, 1, -3}});
+        // example - depth 4: synthesizes (var0 * var0^T + var0^T * (var0 * var0))^T
+        IMatrix<Double> expected1 = mat1.multiply(mat1.transpose()).add(mat1.transpose().multiply(mat1.multiply(mat1))).transpose();
+        IMatrix<Double> expected2 = mat2.multiply(mat2.transpose()).add(mat2.transpose().multiply(mat2.multiply(mat2))).transpose();
+        Map<List<IMatrix<Double>>, IMatrix<Double>> examples = Map.of(
+                List.of(mat1), expected1,
+                List.of(mat2), expected2
+        );
+        AstNode<? extends IMatrix<?>> result = synthesizer.synthesize(examples);
+        assert result.evaluate(mat1).equals(expected1);
+        assert result.evaluate(mat2).equals(expected2);
     }
 
     @Test
@@ -43,6 +197,10 @@ public class SynthesizerTests {
         );
         AstNode<? extends IMatrix<?>> result2 = synthesizer.synthesize(examples2);
         assert result2.evaluate(mat1, mat2).equals(mat1.add(mat2));
+        // The result generalizes, rather than memorizing the example with a constant
+        IMatrix<Double> fresh1 = new ConcreteMatrix(new double[][]{{2, 0, -1}, {3, 1, 4}, {0, 5, 2}});
+        IMatrix<Double> fresh2 = new ConcreteMatrix(new double[][]{{-3, 1, 1}, {0, 2, 7}, {6, 0, 1}});
+        assert result2.evaluate(fresh1, fresh2).equals(fresh1.add(fresh2));
 
         // example 3 - depth 1: synthesizes Call("multiply", Variable(0), Variable(1))
         Map<List<IMatrix<Double>>, IMatrix<Double>> examples3 = Map.of(
@@ -50,6 +208,9 @@ public class SynthesizerTests {
         );
         AstNode<? extends IMatrix<?>> result3 = synthesizer.synthesize(examples3);
         assert result3.evaluate(mat3, mat4).equals(mat3.multiply(mat4));
+        IMatrix<Double> fresh3 = new ConcreteMatrix(new double[][]{{0, 1, -2}, {3, 3, 1}});
+        IMatrix<Double> fresh4 = new ConcreteMatrix(new double[][]{{1, 4}, {-1, 0}, {2, 2}});
+        assert result3.evaluate(fresh3, fresh4).equals(fresh3.multiply(fresh4));
 
         // example 4 - depth 2: synthesizes Call("add", Call("add", Variable(0), Variable(0)), Variable(0)) or
         //                      Call("multiply", Variable(0), Constant(3)) if you can get a 3 or many other options
@@ -83,6 +244,38 @@ public class SynthesizerTests {
         assert result2.evaluate(mat1, mat2, mat3, mat4).equals(mat4.multiply(mat3).add(mat2).add(mat1));
     }
 
+    @Test
+    public void testTimeout() {
+        MySynthesizer synthesizer = new MySynthesizer();
+        // The entrywise square is not an expression
+        Map<List<IMatrix<Double>>, IMatrix<Double>> examples = Map.of(
+                List.of(new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}})), new ConcreteMatrix(new double[][]{{1, 4}, {9, 16}}),
+                List.of(new ConcreteMatrix(new double[][]{{0, 1}, {5, 2}})), new ConcreteMatrix(new double[][]{{0, 1}, {25, 4}})
+        );
+        long startTime = System.currentTimeMillis();
+        assertThrows(CannotSynthesizeException.class, () -> synthesizer.synthesize(examples));
+        assert System.currentTimeMillis() - startTime < ISynthesizer.TIMEOUT_MILLIS + 1000;
+        // The interrupt of the timeout does not leak
+        assert !Thread.currentThread().isInterrupted();
+    }
+
+    @Test
+    public void testInterrupted() {
+        MySynthesizer synthesizer = new MySynthesizer();
+        Map<List<IMatrix<Double>>, IMatrix<Double>> examples = Map.of(
+                List.of(ConcreteMatrix.identity(2)), ConcreteMatrix.identity(2).transpose()
+        );
+        Thread.currentThread().interrupt();
+        try {
+            CannotSynthesizeException e = assertThrows(CannotSynthesizeException.class, () -> synthesizer.synthesize(examples));
+            assert e.getMessage().contains("interrupted") : e.getMessage();
+            // The interrupt of the caller is not cleared
+            assert Thread.currentThread().isInterrupted();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
     // This is a reach goal for the exercise
     @Test
     public void testSynthesisWithSmt() {
@@ -100,4 +293,76 @@ public class SynthesizerTests {
         assert result.evaluate(mat2).equals(mat2.add(mat2));
         assert result.evaluate(ConcreteMatrix.zeros(3, 3)).equals(mat2);
     }
+
+    @Test
+    public void testLinearSketches() {
+        AstFactory factory = new AstFactory();
+        AstNode<? extends IMatrix<?>> variable = factory.variable(0);
+        AstNode<? extends IMatrix<?>> hole = factory.variable(1);
+        ConcreteMatrix a = new ConcreteMatrix(new double[][]{{1, 2}, {3, 4}});
+        ConcreteMatrix b = new ConcreteMatrix(new double[][]{{0, 1}, {5, 2}});
+        ConcreteMatrix constant = new ConcreteMatrix(new double[][]{{1, -1}, {0.5, 3}});
+        List<List<ConcreteMatrix>> inputs = List.of(List.of(a), List.of(b));
+
+        LinearSketchSolver sums = new LinearSketchSolver(inputs, List.of(a.add(constant), b.add(constant)));
+        assert sums.isLinear(factory.call("add", variable, hole));
+        assert sums.isLinear(factory.call("multiply", hole, factory.call("transpose", variable)));
+        assert !sums.isLinear(factory.call("multiply", hole, hole));
+        assert !sums.isLinear(factory.call("transpose", hole));
+        assert !sums.isLinear(factory.call("add", variable, variable));
+        assert sums.solve(factory.call("add", variable, hole), new Shape(2, 2)).orElseThrow().equals(constant);
+        assert sums.solve(factory.call("add", hole, variable), new Shape(2, 2)).orElseThrow().equals(constant);
+        assert sums.solve(factory.call("subtract", hole, variable), new Shape(2, 2)).isEmpty();
+        assert sums.solve(factory.call("add", variable, hole), new Shape(2, 1)).isEmpty();
+        assertThrows(IllegalArgumentException.class, () -> sums.solve(factory.call("multiply", hole, hole), new Shape(2, 2)));
+        LinearSketchSolver differences = new LinearSketchSolver(inputs, List.of(a.subtract(constant), b.subtract(constant)));
+        assert differences.solve(factory.call("subtract", variable, hole), new Shape(2, 2)).orElseThrow().equals(constant);
+        assert differences.solve(factory.call("subtract", hole, variable), new Shape(2, 2)).isEmpty();
+
+        // The solution is not a double, but rounds to one
+        ConcreteMatrix third = new ConcreteMatrix(new double[][]{{1.0 / 3}, {0}});
+        ConcreteMatrix three = new ConcreteMatrix(new double[][]{{3, 0}, {6, 0}});
+        LinearSketchSolver products = new LinearSketchSolver(List.of(List.of(three)),
+                List.of(new ConcreteMatrix(new double[][]{{1}, {2}})));
+        assert products.solve(factory.call("multiply", variable, hole), new Shape(2, 1)).orElseThrow().equals(third);
+        assert products.solve(factory.call("multiply", variable, hole), new Shape(1, 1)).isEmpty();
+        // Both examples together determine the constant, and the right products are solved by transposing
+        LinearSketchSolver left = new LinearSketchSolver(List.of(List.of(new ConcreteMatrix(new double[][]{{1, 0}})),
+                List.of(new ConcreteMatrix(new double[][]{{0, 1}}))),
+                List.of(constant.dropRow(1), constant.dropRow(0)));
+        assert left.solve(factory.call("multiply", variable, hole), new Shape(2, 2)).orElseThrow().equals(constant);
+        LinearSketchSolver right = new LinearSketchSolver(List.of(List.of(a), List.of(b)),
+                List.of(constant.multiply(a), constant.multiply(b)));
+        assert right.solve(factory.call("multiply", hole, variable), new Shape(2, 2)).orElseThrow().equals(constant);
+        // The examples are inconsistent
+        LinearSketchSolver inconsistent = new LinearSketchSolver(List.of(List.of(a), List.of(a)),
+                List.of(constant.multiply(a), a));
+        assert inconsistent.solve(factory.call("multiply", hole, variable), new Shape(2, 2)).isEmpty();
+        assert inconsistent.getQueryCount() == 1;
+        assertThrows(IllegalArgumentException.class, () -> new LinearSketchSolver(inputs, List.of(a)));
+        assertThrows(IllegalArgumentException.class, () -> new LinearSketchSolver(List.of(List.of(a)),
+                List.of(a.exceptAt(0, 0, Double.NaN))));
+    }
+
+    @Test
+    public void testSketchesDoNotMemorize() {
+        MySynthesizer synthesizer = new MySynthesizer();
+        IMatrix<Double> mat1 = ConcreteMatrix.identity(3);
+        IMatrix<Double> mat2 = new ConcreteMatrix(new double[][]{{1, 2, 3}, {4, 5, 6}, {7, 8, 9}});
+        IMatrix<Double> fresh = new ConcreteMatrix(new double[][]{{2, 0, -1}, {3, 1, 4}, {0, 5, 2}});
+        // A single example fits var0.add(C), but the square is a shallow expression
+        AstNode<? extends IMatrix<?>> square = synthesizer.synthesize(Map.of(List.of(mat2), mat2.multiply(mat2)));
+        assert square.evaluate(fresh).equals(fresh.multiply(fresh));
+
+        // The constant is solved on two examples and confirmed on the third
+        IMatrix<Double> constant = new ConcreteMatrix(new double[][]{{1, -1, 0}, {2, 0.5, 1}, {0, 0, 3}});
+        IMatrix<Double> mat3 = new ConcreteMatrix(new double[][]{{0, 1, 0}, {1, 0, 0}, {0, 0, 2}});
+        Map<List<IMatrix<Double>>, IMatrix<Double>> examples = Map.of(
+                List.of(mat1), mat1.add(constant),
+                List.of(mat2), mat2.add(constant),
+                List.of(mat3), mat3.add(constant)
+        );
+        AstNode<? extends IMatrix<?>> result = synthesizer.synthesize(examples);
+        assert result.evaluate(fresh).equals(fresh.add(constant));
+    }
 }